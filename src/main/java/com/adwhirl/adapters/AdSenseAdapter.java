@@ -140,6 +140,7 @@ public class AdSenseAdapter extends AdWhirlAdapter implements AdViewListener {
     }
 
     public void onClickAd() {
+        countClick();
     }
 
     public void onAdFetchFailure() {
@@ -152,7 +153,7 @@ public class AdSenseAdapter extends AdWhirlAdapter implements AdViewListener {
         }
 
         locadzLayout.removeView(adView);
-        locadzLayout.submitReloadAdRequest();
+        locadzLayout.submitRolloverRequest(ration);
     }
 
     /** *************************************************************** */
@@ -39,7 +39,7 @@ import java.util.Map;
  * Sub-class should implement {@link #handle} method to initialize view for particular service of advertisement.<p>
  */
 public abstract class AdWhirlAdapter {
-    private final WeakReference<AdUnitLayout> layoutReference;
+    private volatile WeakReference<AdUnitLayout> layoutReference;
 
     protected final Ration ration;
     protected final Extra extra;
@@ -71,6 +71,17 @@ public abstract class AdWhirlAdapter {
     public AdUnitLayout getLocadzLayout() {
         return layoutReference.get();
     }
+
+    /**
+     * Move this adapter to the layout that adopts its loaded view, e.g. from the <code>AdViewPool</code>, so that
+     * the callbacks of the adapter reach that layout.<p>
+     *
+     * @param layout The new parent layout
+     */
+    public void attachTo(AdUnitLayout layout) {
+        this.layoutReference = new WeakReference<AdUnitLayout>(layout);
+    }
+
     public Extra getExtra() {
         return extra;
     }
@@ -88,10 +99,23 @@ public abstract class AdWhirlAdapter {
     protected boolean isVisible() {
         return layoutReference.get() != null;
     }
+    /**
+     * Give up this network for the current cycle and let the parent layout load the next network.<p>
+     */
     protected void rollover() {
         AdUnitLayout locadzLayout = layoutReference.get();
         if (locadzLayout != null) {
-            locadzLayout.submitReloadAdRequest();
+            locadzLayout.submitRolloverRequest(ration);
+        }
+    }
+
+    /**
+     * Report a click on the ad of this adapter to the parent layout.<p>
+     */
+    protected void countClick() {
+        AdUnitLayout locadzLayout = layoutReference.get();
+        if (locadzLayout != null) {
+            locadzLayout.countClick(ration);
         }
     }
 
@@ -114,7 +138,7 @@ public abstract class AdWhirlAdapter {
          * Builds the adapter
          */
         try {
-            adapter = new AdapterBuilder(adWhirlLayout, ration, extra).buildAdapter();
+            adapter = AdapterBuilder.buildAdapter(adWhirlLayout, ration, extra);
         } catch (BuildAdapterException e) {
             Log.e(LocadzUtils.LOG_TAG, "Exception occur when building adapter", e);
             throw e;
@@ -166,13 +190,14 @@ public abstract class AdWhirlAdapter {
 /**
  * This builder is used to build {@link AdWhirlAdapter}.<p>
  *
- * WARNING: Because this class hold a reference to {@link AdUnitLayout},
- * you must not hold the instance of this build in long-term lifetime.<p>
+ * Networks with an {@link AdapterFactory} in the {@link AdapterRegistry} are built by their factory. For the
+ * others, the built-in adapter class and its dependency are resolved once per process, into either the constructor
+ * of the adapter or the reason why the network is unavailable. Later rotations only invoke the constructor.<p>
  */
 class AdapterBuilder {
-    private AdUnitLayout adWhirlLayout;
-    private Ration ration;
-    private Extra extra;
+
+    /** the signature of the constructor of every adapter. */
+    private static final Class<?>[] CONSTRUCTOR_PARAMETER_TYPES = { AdUnitLayout.class, Ration.class, Extra.class };
 
     private final static Map<Integer, AdapterInfo> mapOfAdapters; // The mapping information for building adapter
     static {
@@ -192,86 +217,56 @@ class AdapterBuilder {
         // :~)
     }
 
-    AdapterBuilder(AdUnitLayout newAdWhirlLayout, Ration newRation, Extra newExtra)
-    {
-        adWhirlLayout = newAdWhirlLayout;
-        ration = newRation;
-        extra = newExtra;
+    /** Hide constructor. */
+    private AdapterBuilder() {
     }
 
     /**
      * Build adapter by id of advertising network.<p>
+     *
+     * @param adWhirlLayout The object of parent layout
+     * @param ration The meta-data of advertisement service
+     * @param extra The extra parameters for advertisement service
      */
-    AdWhirlAdapter buildAdapter() throws BuildAdapterException
+    static AdWhirlAdapter buildAdapter(AdUnitLayout adWhirlLayout, Ration ration, Extra extra)
+        throws BuildAdapterException
     {
-        if (!mapOfAdapters.containsKey(ration.getNetworkId())) {
-            String message = "Unsupported network: [" + ration.getNetworkId() + "]";
-            Log.w(LocadzUtils.LOG_TAG, message);
-            throw new BuildAdapterException(message);
+        // a factory registered by the application takes precedence over the reflective built-in adapters.
+        AdapterFactory factory = AdapterRegistry.get(ration.getNetworkId());
+        if (factory != null) {
+            AdWhirlAdapter ret;
+            try {
+                ret = factory.create(adWhirlLayout, ration, extra);
+            } catch (RuntimeException e) {
+                throw new BuildAdapterException(e);
+            }
+            if (ret == null) {
+                throw new BuildAdapterException("Factory returned no adapter for network: [" + ration.getNetworkId() + "]");
+            }
+            return ret;
         }
 
-        /**
-         * Load mapping of adapter and class of adapter
-         */
         AdapterInfo buildInfo = mapOfAdapters.get(ration.getNetworkId());
-
-        try {
-            return checkAndBuildAdapter(buildInfo.dependencyClassName, (Class<AdWhirlAdapter>)Class.forName(buildInfo.adapterClassName));
-        } catch (ClassNotFoundException e) {
-            String message = "Can't load adapter: " + buildInfo.adapterClassName;
+        if (buildInfo == null) {
+            String message = "Unsupported network: [" + ration.getNetworkId() + "]";
             Log.w(LocadzUtils.LOG_TAG, message);
             throw new BuildAdapterException(message);
         }
-        // :~)
-    }
-
-    private AdWhirlAdapter checkAndBuildAdapter(
-        String classNameOfDependency, Class<AdWhirlAdapter> adapterClassName
-    ) throws BuildAdapterException
-    {
-        if (Log.isLoggable(LocadzUtils.LOG_TAG, Log.VERBOSE)) {
-            Log.v(LocadzUtils.LOG_TAG,
-                String.format(
-                    "Processing dependency[%s] for adapter[%s]",
-                    classNameOfDependency, adapterClassName.getSimpleName()
-                )
-            );
-        }
 
-        /**
-         * Check the dependency of library from advertising service
-         */
-        if (!hasClassForName(classNameOfDependency)) {
-            String message = "The dependency for network: [" + ration.getNetworkId() + "] is not exists. class: [" + classNameOfDependency + "]";
-            Log.w(LocadzUtils.LOG_TAG, message);
-            throw new BuildAdapterException(message);
+        Resolution resolution = buildInfo.resolve(ration.getNetworkId());
+        if (resolution.constructor == null) {
+            // the network is known to be unavailable, no class loading this time.
+            throw new BuildAdapterException(resolution.failure);
         }
-        // :~)
-
-        AdWhirlAdapter adWhirlAdapter = null;
 
         try {
-            Class<?>[] parameterTypes = new Class[3];
-            parameterTypes[0] = AdUnitLayout.class;
-            parameterTypes[1] = Ration.class;
-            parameterTypes[2] = Extra.class;
-
-            Constructor<AdWhirlAdapter> constructor = adapterClassName.getConstructor(parameterTypes);
-
-            Object[] args = new Object[3];
-            args[0] = adWhirlLayout;
-            args[1] = ration;
-            args[2] = extra;
-
-            adWhirlAdapter = constructor.newInstance(args);
+            return resolution.constructor.newInstance(adWhirlLayout, ration, extra);
         } catch (Exception e) {
             throw new BuildAdapterException(e);
         }
-
-        return adWhirlAdapter;
     }
 
-    private boolean hasClassForName(String className)
+    private static boolean hasClassForName(String className)
     {
         try {
             Class.forName(className);
@@ -289,11 +284,75 @@ class AdapterBuilder {
         String dependencyClassName;
         String adapterClassName;
 
+        /** resolved on the first build, never changes afterwards. */
+        private volatile Resolution resolution;
+
         AdapterInfo(String dependencyClassName, String adapterClassName)
         {
             this.dependencyClassName = dependencyClassName;
             this.adapterClassName = adapterClassName;
         }
+
+        /**
+         * @param networkId the id of the network, for logging.
+         * @return the constructor of the adapter or the reason why it can not be built.
+         */
+        Resolution resolve(int networkId) {
+            Resolution ret = resolution;
+            if (ret == null) {
+                synchronized (this) {
+                    ret = resolution;
+                    if (ret == null) {
+                        ret = doResolve(networkId);
+                        resolution = ret;
+                    }
+                }
+            }
+            return ret;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Resolution doResolve(int networkId) {
+            if (Log.isLoggable(LocadzUtils.LOG_TAG, Log.VERBOSE)) {
+                Log.v(LocadzUtils.LOG_TAG,
+                    String.format("Processing dependency[%s] for adapter[%s]", dependencyClassName, adapterClassName)
+                );
+            }
+
+            /**
+             * Check the dependency of library from advertising service
+             */
+            if (!hasClassForName(dependencyClassName)) {
+                String message = "The dependency for network: [" + networkId + "] is not exists. class: [" + dependencyClassName + "]";
+                Log.w(LocadzUtils.LOG_TAG, message);
+                return new Resolution(null, message);
+            }
+            // :~)
+
+            try {
+                Class<AdWhirlAdapter> adapterClass = (Class<AdWhirlAdapter>) Class.forName(adapterClassName);
+                return new Resolution(adapterClass.getConstructor(CONSTRUCTOR_PARAMETER_TYPES), null);
+            } catch (ClassNotFoundException e) {
+                String message = "Can't load adapter: " + adapterClassName;
+                Log.w(LocadzUtils.LOG_TAG, message);
+                return new Resolution(null, message);
+            } catch (NoSuchMethodException e) {
+                String message = "No constructor in adapter: " + adapterClassName;
+                Log.w(LocadzUtils.LOG_TAG, message, e);
+                return new Resolution(null, message);
+            }
+        }
+    }
+
+    /** The outcome of resolving a network, either the constructor of its adapter or a failure message. */
+    private static final class Resolution {
+        final Constructor<AdWhirlAdapter> constructor;
+        final String failure;
+
+        Resolution(Constructor<AdWhirlAdapter> constructor, String failure) {
+            this.constructor = constructor;
+            this.failure = failure;
+        }
     }
 }
 
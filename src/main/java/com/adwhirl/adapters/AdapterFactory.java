@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adwhirl.adapters;
+
+import com.locadz.AdUnitLayout;
+import com.locadz.model.Extra;
+import com.locadz.model.Ration;
+
+/**
+ * Creates the {@link AdWhirlAdapter} of an advertising network without reflection.<p>
+ *
+ * Register a factory for every network the application ships with {@link AdapterRegistry#register}, typically
+ * from <code>Application.onCreate()</code>:
+ * <pre><code>
+ * AdapterRegistry.register(AdWhirlUtil.NETWORK_TYPE_ADMOB, new AdapterFactory() {
+ *     public AdWhirlAdapter create(AdUnitLayout layout, Ration ration, Extra extra) {
+ *         return new GoogleAdMobAdsAdapter(layout, ration, extra);
+ *     }
+ * });
+ * </code></pre>
+ */
+public interface AdapterFactory {
+
+    /**
+     * Create the adapter, called on the main thread for every ad of the network.
+     *
+     * @param layout The object of parent layout
+     * @param ration The meta-data of advertisement service
+     * @param extra The extra parameters for advertisement service
+     * @return the new adapter.
+     */
+    AdWhirlAdapter create(AdUnitLayout layout, Ration ration, Extra extra);
+}
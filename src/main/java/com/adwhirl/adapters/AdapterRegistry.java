@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adwhirl.adapters;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link AdapterFactory}s by network id.<p>
+ *
+ * A network with a registered factory is built by calling the factory, its adapter class is never looked up by
+ * name. Networks without a factory fall back to the built-in adapters, which are loaded by reflection once per
+ * process and only if the SDK of the network is present.
+ */
+public final class AdapterRegistry {
+
+    private static final Map<Integer, AdapterFactory> FACTORIES = new ConcurrentHashMap<Integer, AdapterFactory>();
+
+    /** Hide constructor. */
+    private AdapterRegistry() {
+    }
+
+    /**
+     * Register the factory of a network, replacing the factory or the built-in adapter of the network.
+     *
+     * @param networkId the id of the network, one of the <code>AdWhirlUtil.NETWORK_TYPE_*</code> constants.
+     * @param factory   the factory.
+     */
+    public static void register(int networkId, AdapterFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory is null.");
+        }
+        FACTORIES.put(networkId, factory);
+    }
+
+    /**
+     * Remove the factory of a network, the network falls back to its built-in adapter if there is one.
+     *
+     * @param networkId the id of the network.
+     */
+    public static void unregister(int networkId) {
+        FACTORIES.remove(networkId);
+    }
+
+    /**
+     * @param networkId the id of the network.
+     * @return the registered factory of the network or null.
+     */
+    static AdapterFactory get(int networkId) {
+        return FACTORIES.get(networkId);
+    }
+}
@@ -132,7 +132,7 @@ public class GoogleAdMobAdsAdapter extends AdWhirlAdapter implements AdListener
             return;
         }
 
-        locadzLayout.submitReloadAdRequest();
+        locadzLayout.submitRolloverRequest(ration);
     }
 
     @Override
@@ -141,6 +141,8 @@ public class GoogleAdMobAdsAdapter extends AdWhirlAdapter implements AdListener
 
     @Override
     public void onPresentScreen(Ad arg0) {
+        // AdMob presents its full screen ad when the banner is clicked.
+        countClick();
     }
 
     @Override
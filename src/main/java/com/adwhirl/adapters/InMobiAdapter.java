@@ -82,6 +82,8 @@ public final class InMobiAdapter extends AdWhirlAdapter implements IMAdListener
 
     @Override
     public void onShowAdScreen(IMAdView adView) {
+        // InMobi shows its ad screen when the banner is clicked.
+        countClick();
     }
 
     @Override
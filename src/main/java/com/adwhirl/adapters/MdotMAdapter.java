@@ -34,7 +34,7 @@ public class MdotMAdapter extends AdWhirlAdapter implements MdotMActionListener
         }
         // Thrown on invalid publisher id
         catch (IllegalArgumentException e) {
-            locadzLayout.submitReloadAdRequest();
+            locadzLayout.submitRolloverRequest(ration);
             return;
         }
 
@@ -76,6 +76,6 @@ public class MdotMAdapter extends AdWhirlAdapter implements MdotMActionListener
         if (locadzLayout == null) {
             return;
         }
-        locadzLayout.submitReloadAdRequest();
+        locadzLayout.submitRolloverRequest(ration);
     }
 }
@@ -106,15 +106,17 @@ public class MillennialAdapter extends AdWhirlAdapter implements MMAdListener {
         if (locadzLayout == null) {
             return;
         }
-        locadzLayout.submitReloadAdRequest();
+        locadzLayout.submitRolloverRequest(ration);
     }
 
     public void MMAdClickedToNewBrowser(MMAdView adview) {
         Log.d(LocadzUtils.LOG_TAG, "Millennial Ad clicked, new browser launched");
+        countClick();
     }
 
     public void MMAdClickedToOverlay(MMAdView adview) {
         Log.d(LocadzUtils.LOG_TAG, "Millennial Ad Clicked to overlay");
+        countClick();
     }
 
     public void MMAdOverlayLaunched(MMAdView adview) {
@@ -44,7 +44,7 @@ public class ZestAdzAdapter extends AdWhirlAdapter implements ZestADZListener {
         }
         // Thrown on invalid client id.
         catch (IllegalArgumentException e) {
-            locadzLayout.submitReloadAdRequest();
+            locadzLayout.submitRolloverRequest(ration);
             return;
         }
 
@@ -58,7 +58,7 @@ public class ZestAdzAdapter extends AdWhirlAdapter implements ZestADZListener {
             adView.setListener(this);
             adView.displayAd();
         } catch (Exception e) {
-            locadzLayout.submitReloadAdRequest();
+            locadzLayout.submitRolloverRequest(ration);
         }
     }
 
@@ -86,7 +86,7 @@ public class ZestAdzAdapter extends AdWhirlAdapter implements ZestADZListener {
             return;
         }
 
-        locadzLayout.submitReloadAdRequest();
+        locadzLayout.submitRolloverRequest(ration);
     }
 
 }
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.content.Context;
+import android.util.Log;
+import com.adwhirl.util.AdWhirlUtil;
+import com.locadz.model.Ration;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import static com.locadz.LocadzUtils.LOG_TAG;
+
+/**
+ * Records the impressions and clicks of the ad units and uploads them in batches.<p/>
+ *
+ * Events are appended to a log file in the private files directory on the housekeeping thread of the SDK, one
+ * json object per line. When the log holds {@link #BATCH_SIZE} events, or every {@link #UPLOAD_INTERVAL}, it is
+ * renamed to a batch file and the batch files are uploaded in a single gzipped request each. A batch is deleted
+ * once the server has accepted it, failed uploads are retried with exponential backoff. Batch files survive the
+ * process and are uploaded by the next one.<p/>
+ *
+ * A batch carries the parameters of the AdWhirl {@code urlImpression} and {@code urlClick} metrics, so that the
+ * server records a batched event like the request it replaces:
+ * <pre>
+ * {"uuid": "...", "country_code": "US", "appver": 311,
+ *  "events": [{"event": "impression", "appid": "...", "nid": "...", "type": 1, "timestamp": 1234567890123}, ...]}
+ * </pre>
+ * See {@link LocadzUtils#getEventsUri()} for the responses.
+ */
+final class AdEventTracker {
+
+    /** the events of a tracker live in their own directory. */
+    static final String DIRECTORY_NAME = "locadz_events";
+
+    static final String TYPE_IMPRESSION = "impression";
+
+    static final String TYPE_CLICK = "click";
+
+    /** events per batch, a full log is uploaded right away. */
+    static final int BATCH_SIZE = 50;
+
+    /** how often a partial log is uploaded. */
+    static final long UPLOAD_INTERVAL = 15 * 60 * 1000; // 15 minutes.
+
+    /** the first upload of a process sends the batches left behind by the previous one. */
+    private static final long INITIAL_UPLOAD_DELAY = 30 * 1000; // 30 seconds.
+
+    private static final long MIN_RETRY_DELAY = 60 * 1000; // 1 minute.
+
+    private static final long MAX_RETRY_DELAY = 6 * 60 * 60 * 1000; // 6 hours.
+
+    /** the oldest batches are dropped beyond this, a device that stays offline must not fill up its disk. */
+    private static final int MAX_BATCHES = 20;
+
+    private static final String LOG_FILE_NAME = "events.log";
+
+    private static final String BATCH_FILE_PREFIX = "batch-";
+
+    private static final String BATCH_FILE_SUFFIX = ".log";
+
+    private static final String CHARSET_UTF8 = "UTF-8";
+
+    private static final String CONTENT_TYPE_JSON = "application/json";
+
+    /** A recorded event. */
+    private static final class Event {
+
+        private final String type;
+
+        private final String adUnitId;
+
+        private final String allocationId;
+
+        private final int networkId;
+
+        private final long timestamp;
+
+        private Event(String type, String adUnitId, String allocationId, int networkId, long timestamp) {
+            this.type = type;
+            this.adUnitId = adUnitId;
+            this.allocationId = allocationId;
+            this.networkId = networkId;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the line of the event in the log.
+         * @throws IOException when serialization fails.
+         */
+        private String toJson() throws IOException {
+            Map<String, Object> ret = new LinkedHashMap<String, Object>();
+            ret.put("event", type);
+            ret.put("appid", adUnitId);
+            ret.put("nid", allocationId);
+            ret.put("type", networkId);
+            ret.put("timestamp", timestamp);
+            return SerializationUtils.toJson(ret);
+        }
+    }
+
+    private static final FileFilter BATCH_FILE_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            String name = file.getName();
+            return name.startsWith(BATCH_FILE_PREFIX) && name.endsWith(BATCH_FILE_SUFFIX);
+        }
+    };
+
+    /** a batch keeps the modification time of the log it was renamed from. */
+    private static final Comparator<File> OLDEST_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            long diff = lhs.lastModified() - rhs.lastModified();
+            return diff != 0 ? (diff < 0 ? -1 : 1) : lhs.getName().compareTo(rhs.getName());
+        }
+    };
+
+    /** the tracker of the application. */
+    private static AdEventTracker instance;
+
+    private final File directory;
+
+    /** the application context to look up the device id with, lazily on the upload thread. */
+    private final Context context;
+
+    private final Backoff backoff = new Backoff(MIN_RETRY_DELAY, MAX_RETRY_DELAY);
+
+    /** events that have not been appended to the log yet, guarded by itself. */
+    private final List<Event> pending = new ArrayList<Event>();
+
+    /** true while an append is scheduled, guarded by {@link #pending}. */
+    private boolean appendScheduled;
+
+    /** guards the log and batch files. */
+    private final Object fileLock = new Object();
+
+    /** number of events in the log file, -1 until counted, guarded by {@link #fileLock}. */
+    private int loggedEvents = -1;
+
+    private final AtomicBoolean uploading = new AtomicBoolean();
+
+    private final Executor executor;
+
+    private final Executor uploadExecutor;
+
+    private final Runnable uploadTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                upload();
+            } finally {
+                uploading.set(false);
+                // the device id may have been generated by the upload, persist it while on a background thread.
+                WriteBehindQueue.flushAll();
+            }
+        }
+    };
+
+    private final Runnable appendTask = new Runnable() {
+        @Override
+        public void run() {
+            if (flush() >= BATCH_SIZE) {
+                startUpload();
+            }
+        }
+    };
+
+    /**
+     * @param directory the directory of the log, created on the first event.
+     * @param context   the context.
+     * @param executor  the executor of the appends.
+     * @param uploadExecutor    the executor of the uploads.
+     */
+    AdEventTracker(File directory, Context context, Executor executor, Executor uploadExecutor) {
+        this.directory = directory;
+        this.context = context;
+        this.executor = executor;
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /**
+     * @param context   the context.
+     * @return the tracker of the application, uploading periodically.
+     */
+    static synchronized AdEventTracker getInstance(Context context) {
+        if (instance == null) {
+            final AdEventTracker tracker = new AdEventTracker(new File(context.getFilesDir(), DIRECTORY_NAME),
+                context.getApplicationContext(), RotationScheduler.getHousekeepingExecutor(),
+                RotationScheduler.getNetworkExecutor());
+            RotationScheduler.scheduleHousekeeping(new Runnable() {
+                @Override
+                public void run() {
+                    tracker.flush();
+                    tracker.startUpload();
+                }
+            }, INITIAL_UPLOAD_DELAY, UPLOAD_INTERVAL);
+            instance = tracker;
+        }
+        return instance;
+    }
+
+    /**
+     * Record an event, it is logged in the background.
+     *
+     * @param type      {@link #TYPE_IMPRESSION} or {@link #TYPE_CLICK}.
+     * @param adUnitId  the id of the ad unit.
+     * @param ration    the ration of the ad.
+     */
+    void record(String type, String adUnitId, Ration ration) {
+        Event event = new Event(type, adUnitId, ration.getAllocationId(), ration.getNetworkId(),
+            System.currentTimeMillis());
+        synchronized (pending) {
+            pending.add(event);
+            if (appendScheduled) {
+                return;
+            }
+            appendScheduled = true;
+        }
+
+        try {
+            executor.execute(appendTask);
+        } catch (RejectedExecutionException e) {
+            appendTask.run();
+        }
+    }
+
+    /**
+     * Append the recorded events to the log on the calling thread.
+     *
+     * @return the number of events in the log.
+     */
+    int flush() {
+        List<Event> events;
+        synchronized (pending) {
+            events = new ArrayList<Event>(pending);
+            pending.clear();
+            appendScheduled = false;
+        }
+
+        synchronized (fileLock) {
+            if (!events.isEmpty()) {
+                try {
+                    append(events);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to log ad events.", e);
+                }
+            }
+            return Math.max(loggedEvents, 0);
+        }
+    }
+
+    /**
+     * Rotate the log and upload the batches in the background, unless an upload is running or backing off.
+     */
+    void startUpload() {
+        if (!backoff.isAllowed(System.currentTimeMillis()) || !uploading.compareAndSet(false, true)) {
+            return;
+        }
+        rotateLog();
+
+        // an upload may wait for the network for a while, it must not hold up the housekeeping thread.
+        try {
+            uploadExecutor.execute(uploadTask);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Failed to submit upload.", e);
+            uploading.set(false);
+        }
+    }
+
+    /**
+     * Move the events of the log to a new batch and drop the oldest batches beyond {@link #MAX_BATCHES}.
+     */
+    void rotateLog() {
+        synchronized (fileLock) {
+            File log = getLogFile();
+            if (log.length() > 0) {
+                File batch = new File(directory, BATCH_FILE_PREFIX + System.currentTimeMillis() + BATCH_FILE_SUFFIX);
+                for (int i = 1; batch.exists(); i++) {
+                    batch = new File(directory, BATCH_FILE_PREFIX + System.currentTimeMillis() + "-" + i + BATCH_FILE_SUFFIX);
+                }
+                if (log.renameTo(batch)) {
+                    loggedEvents = 0;
+                } else {
+                    Log.w(LOG_TAG, "Failed to rename " + log);
+                }
+            }
+
+            File[] batches = listBatches();
+            for (int i = 0; i < batches.length - MAX_BATCHES; i++) {
+                Log.w(LOG_TAG, "Dropping ad events of " + batches[i]);
+                batches[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Upload the batches on the calling thread, oldest first. Stops at the first failure.
+     *
+     * @return true if all batches have been uploaded.
+     */
+    boolean upload() {
+        for (File batch : listBatches()) {
+            byte[] body;
+            synchronized (fileLock) {
+                if (!batch.isFile()) {
+                    continue;
+                }
+                try {
+                    body = encodeBatch(readFully(batch));
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Dropping unreadable " + batch, e);
+                    batch.delete();
+                    continue;
+                }
+            }
+
+            int statusCode;
+            try {
+                statusCode = post(body);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to upload ad events.", e);
+                statusCode = HttpStatus.SC_SERVICE_UNAVAILABLE;
+            }
+
+            if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR || statusCode == HttpStatus.SC_REQUEST_TIMEOUT) {
+                long delay = backoff.failure(System.currentTimeMillis());
+                Log.d(LOG_TAG, String.format("Ad event upload failed with %d, retrying in %d ms", statusCode, delay));
+                return false;
+            }
+            if (statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+                // the server will not accept the batch on a retry either.
+                Log.w(LOG_TAG, String.format("Ad events of %s rejected with %d", batch, statusCode));
+            }
+            synchronized (fileLock) {
+                batch.delete();
+            }
+        }
+        backoff.success();
+        return true;
+    }
+
+    /**
+     * @param events    the events to append.
+     * @throws IOException when write fails.
+     */
+    private void append(List<Event> events) throws IOException {
+        StringBuilder lines = new StringBuilder(events.size() * 128);
+        for (Event event : events) {
+            lines.append(event.toJson()).append('\n');
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        File log = getLogFile();
+        if (loggedEvents < 0) {
+            byte[] content = log.isFile() ? readFully(log) : new byte[0];
+            loggedEvents = countLines(content);
+            if (content.length > 0 && content[content.length - 1] != '\n') {
+                // the partial line of an interrupted append, end it so that it is not joined to the next event.
+                lines.insert(0, '\n');
+            }
+        }
+
+        // no sync, the events only have to survive the process, not the device.
+        try {
+            OutputStream out = new FileOutputStream(log, true);
+            try {
+                out.write(lines.toString().getBytes(CHARSET_UTF8));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // part of the lines may have been written, check the end of the log again on the next append.
+            loggedEvents = -1;
+            throw e;
+        }
+        loggedEvents += events.size();
+    }
+
+    /**
+     * @param log   the content of a log.
+     * @return the gzipped request body with the events of the log.
+     * @throws IOException when encoding fails.
+     */
+    private byte[] encodeBatch(byte[] log) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(log.length / 4 + 64);
+        OutputStream out = new GZIPOutputStream(buffer);
+        out.write(("{\"uuid\":" + SerializationUtils.toJson(getDeviceId())
+            + ",\"country_code\":" + SerializationUtils.toJson(Locale.getDefault().getCountry())
+            + ",\"appver\":" + AdWhirlUtil.VERSION + ",\"events\":[").getBytes(CHARSET_UTF8));
+        boolean first = true;
+        int start = 0;
+        for (int i = 0; i < log.length; i++) {
+            // skip the partial lines of interrupted appends, a single one must not get the whole batch rejected.
+            if (log[i] == '\n') {
+                if (i > start && SerializationUtils.isJsonObject(log, start, i - start)) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    out.write(log, start, i - start);
+                    first = false;
+                }
+                start = i + 1;
+            }
+        }
+        out.write(']');
+        out.write('}');
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @param body  the gzipped request body.
+     * @return the status code of the response.
+     * @throws IOException when the request fails.
+     */
+    private static int post(byte[] body) throws IOException {
+        HttpPost httpPost = new HttpPost(LocadzUtils.getEventsUri());
+        ByteArrayEntity entity = new ByteArrayEntity(body);
+        entity.setContentType(CONTENT_TYPE_JSON);
+        entity.setContentEncoding(DecompressingEntity.ENCODING_GZIP);
+        httpPost.setEntity(entity);
+
+        HttpResponse httpResponse = HttpClientFactory.getInstance().execute(httpPost);
+        HttpEntity responseEntity = httpResponse.getEntity();
+        if (responseEntity != null) {
+            // release the connection to the pool.
+            responseEntity.consumeContent();
+        }
+        return httpResponse.getStatusLine().getStatusCode();
+    }
+
+    /**
+     * @return the device id or null.
+     */
+    private String getDeviceId() {
+        return context == null ? null : new DeviceUuidFactory(context).getDeviceUuid().toString();
+    }
+
+    /**
+     * @return the batch files, oldest first.
+     */
+    private File[] listBatches() {
+        File[] ret = directory.listFiles(BATCH_FILE_FILTER);
+        if (ret == null) {
+            return new File[0];
+        }
+        Arrays.sort(ret, OLDEST_FIRST);
+        return ret;
+    }
+
+    private File getLogFile() {
+        return new File(directory, LOG_FILE_NAME);
+    }
+
+    /**
+     * @param content   the content of a log.
+     * @return the number of complete lines.
+     */
+    private static int countLines(byte[] content) {
+        int ret = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param file  the file.
+     * @return the content of the file.
+     * @throws IOException when read fails.
+     */
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import com.locadz.model.AdUnitAllocation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of parsed {@link AdUnitAllocation}s keyed by ad unit id.<p/>
+ *
+ * Entries expire with the same timestamp as the persisted json config, so a cache hit never outlives the
+ * stored config it was parsed from. Expired entries are kept as stale entries until they reach the
+ * maximum staleness. When the cache is full, the least recently used entry is evicted.
+ */
+final class AdUnitAllocationCache {
+
+    private final long expirationPeriod;
+
+    private final long maxStaleness;
+
+    /** access ordered map, the eldest entry is the least recently used one. */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxEntries        the maximum number of allocations to keep.
+     * @param expirationPeriod  how long (in ms) an allocation is valid after it was fetched.
+     * @param maxStaleness      how long (in ms) an expired allocation may still be served after it was fetched.
+     */
+    AdUnitAllocationCache(final int maxEntries, long expirationPeriod, long maxStaleness) {
+        this.expirationPeriod = expirationPeriod;
+        this.maxStaleness = maxStaleness;
+        this.entries = new LinkedHashMap<String, Entry>(maxEntries + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the cached allocation of the adunit.
+     *
+     * @param adUnitId  the id of the adunit.
+     * @return the cached allocation or null if it is absent or expired.
+     */
+    synchronized AdUnitAllocation get(String adUnitId) {
+        return get(adUnitId, expirationPeriod);
+    }
+
+    /**
+     * Get the cached allocation of the adunit, even if it is expired.
+     *
+     * @param adUnitId  the id of the adunit.
+     * @return the cached allocation or null if it is absent or older than the maximum staleness.
+     */
+    synchronized AdUnitAllocation getStale(String adUnitId) {
+        return get(adUnitId, maxStaleness);
+    }
+
+    private AdUnitAllocation get(String adUnitId, long maxAge) {
+        Entry entry = entries.get(adUnitId);
+        if (entry == null) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - entry.timestamp;
+        if (age > maxStaleness) {
+            entries.remove(adUnitId);
+            return null;
+        }
+        return age > maxAge ? null : entry.allocation;
+    }
+
+    /**
+     * Cache the allocation of the adunit.
+     *
+     * @param adUnitId      the id of the adunit.
+     * @param allocation    the parsed allocation.
+     * @param timestamp     the time when the allocation was fetched from the remote source.
+     */
+    synchronized void put(String adUnitId, AdUnitAllocation allocation, long timestamp) {
+        entries.put(adUnitId, new Entry(allocation, timestamp));
+    }
+
+    /**
+     * Mark the cached allocation of the adunit as fresh, the remote source has confirmed it is unchanged.
+     *
+     * @param adUnitId      the id of the adunit.
+     * @param timestamp     the time of the confirmation.
+     */
+    synchronized void touch(String adUnitId, long timestamp) {
+        Entry entry = entries.get(adUnitId);
+        if (entry != null) {
+            entry.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Get the {@link RationSelector} for the allocation of the adunit. The selector is built once per cached
+     * allocation and reused until the allocation is evicted.
+     *
+     * @param adUnitId      the id of the adunit.
+     * @param allocation    the allocation to select rations from.
+     * @return the selector for the allocation.
+     */
+    synchronized RationSelector getRationSelector(String adUnitId, AdUnitAllocation allocation) {
+        Entry entry = entries.get(adUnitId);
+        if (entry == null || entry.allocation != allocation) {
+            return new RationSelector(allocation.getRations());
+        }
+        if (entry.rationSelector == null) {
+            entry.rationSelector = new RationSelector(allocation.getRations());
+        }
+        return entry.rationSelector;
+    }
+
+    /**
+     * Remove the cached allocation of the adunit.
+     * @param adUnitId  the id of the adunit.
+     */
+    synchronized void remove(String adUnitId) {
+        entries.remove(adUnitId);
+    }
+
+    /** Remove all cached allocations. */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+
+        private final AdUnitAllocation allocation;
+
+        private long timestamp;
+
+        /** lazily built when the first ration of this allocation is selected. */
+        private RationSelector rationSelector;
+
+        private Entry(AdUnitAllocation allocation, long timestamp) {
+            this.allocation = allocation;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -16,106 +16,379 @@
 
 package com.locadz;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.os.IBinder;
 import android.content.SharedPreferences;
 import android.util.Log;
 import com.locadz.model.AdUnitAllocation;
 import com.locadz.model.Ration;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonProcessingException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.locadz.LocadzUtils.LOG_TAG;
 
-/** Service that retrieve the ad unit allocations from external source and cache locally in SharedPreference. */
-public final class AdUnitAllocationService extends IntentService {
+/**
+ * Service that retrieve the ad unit allocations from external source and cache locally in a {@link AdUnitAllocationStore}.<p/>
+ *
+ * The requests of different ad units are handled in parallel by a small pool of worker threads, so that a slow
+ * fetch of one ad unit does not hold up the responses of the others. The requests of an ad unit are handled in
+ * order. The service stops itself when all its requests have been handled.
+ */
+public final class AdUnitAllocationService extends Service {
+
+    /** the maximum number of requests handled in parallel. */
+    private static final int MAX_WORKERS = 3;
+
+    /** the maximum number of fetches in flight, the workers plus the background refresh. */
+    static final int MAX_CONCURRENT_FETCHES = MAX_WORKERS + 1;
+
+    private static final ThreadPoolExecutor WORKERS = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS,
+        0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread ret = new Thread(runnable, "Locadz-Allocation-" + count.incrementAndGet());
+                // the idle workers are never reclaimed, they must not keep the process alive or compete with the
+                // UI thread.
+                ret.setDaemon(true);
+                ret.setPriority(Thread.MIN_PRIORITY);
+                return ret;
+            }
+        });
+
+    /** the requests by adunit id, handled on {@link #WORKERS}. */
+    private static final KeyedSerialExecutor REQUEST_EXECUTOR = new KeyedSerialExecutor(WORKERS);
 
     private static final int CACHE_EXPIRATION_PERIOD = 30 * 60 * 1000; // 30 minutes.
 
-    private final static String PREFS_STRING_TIMESTAMP = "timestamp";
-    private final static String PREFS_STRING_CONFIG = "config";
+    /** an expired config is served while it is refreshed in the background, up to this age. */
+    private static final int CACHE_MAX_STALENESS = 24 * 60 * 60 * 1000; // 24 hours.
+
+    /** maximum number of parsed allocations kept in memory. */
+    private static final int CACHE_MAX_ENTRIES = 16;
+
+    /** parsed allocations shared by all service instances, so that a rotation does not hit the disk every cycle. */
+    private static final AdUnitAllocationCache ALLOCATION_CACHE =
+        new AdUnitAllocationCache(CACHE_MAX_ENTRIES, CACHE_EXPIRATION_PERIOD, CACHE_MAX_STALENESS);
+
+    /** ids of the adunits whose config is being refreshed in the background. */
+    private static final Set<String> REFRESHING_ADUNITS = Collections.synchronizedSet(new HashSet<String>());
 
-    public AdUnitAllocationService() {
-        super(AdUnitAllocationService.class.getCanonicalName());
+    /**
+     * ids of the adunits with a request queued or in progress. Further requests for them are merged into that
+     * request, its SHOW_AD response reaches all layouts of the adunit anyway.
+     */
+    private static final Set<String> PENDING_ADUNITS = Collections.synchronizedSet(new HashSet<String>());
+
+    /** delay before the first retry of a failed fetch. */
+    private static final long FETCH_RETRY_MIN_DELAY = 30 * 1000; // 30 seconds.
+
+    /** the retries of a failing fetch back off up to this delay. */
+    private static final long FETCH_RETRY_MAX_DELAY = 30 * 60 * 1000; // 30 minutes.
+
+    /**
+     * backoffs of the adunits whose last fetch failed. The reloads of all layouts of an adunit share the backoff,
+     * so that an outage of the backend or the network costs a bounded number of requests.
+     */
+    private static final ConcurrentMap<String, Backoff> FETCH_BACKOFFS = new ConcurrentHashMap<String, Backoff>();
+
+    /** executor of the background refreshes, so that the worker thread never waits for a stale config. */
+    private static Executor refreshExecutor = Executors.newSingleThreadExecutor();
+
+    /** keys of the SharedPreferences the config was stored in by older versions. */
+    private final static String LEGACY_PREFS_STRING_TIMESTAMP = "timestamp";
+    private final static String LEGACY_PREFS_STRING_CONFIG = "config";
+    private final static String LEGACY_PREFS_STRING_ETAG = "etag";
+    private final static String LEGACY_PREFS_STRING_LAST_MODIFIED = "last_modified";
+
+    private final static String HEADER_ETAG = "ETag";
+    private final static String HEADER_LAST_MODIFIED = "Last-Modified";
+    private final static String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private final static String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final static String CHARSET_UTF8 = "UTF-8";
+
+    /** initial size of the buffer for a response body of unknown length. */
+    private final static int RESPONSE_BUFFER_SIZE = 4 * 1024;
+
+    /** upper bound of the initial size of the buffer for a response body. */
+    private final static int MAX_RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+    /** number of requests and background refreshes of this service that have not finished yet, guarded by this. */
+    private int pendingRequests;
+
+    /** the start id of the latest request, guarded by this. */
+    private int lastStartId;
+
+    /** {@inheritDoc} */
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 
+    /** {@inheritDoc} */
     @Override
-    protected void onHandleIntent(Intent intent) {
+    public int onStartCommand(final Intent intent, int flags, int startId) {
+        String adUnitId = intent == null ? null : intent.getStringExtra(IntentConstants.EXTRA_ADUNIT_ID);
+
+        synchronized (this) {
+            lastStartId = startId;
+            if (adUnitId == null || !PENDING_ADUNITS.add(adUnitId)) {
+                Log.d(LOG_TAG, adUnitId == null ? "Ignored request without adunit id" : "Merged request of " + adUnitId);
+                stopIfIdle();
+                return START_NOT_STICKY;
+            }
+            pendingRequests++;
+        }
+
+        try {
+            REQUEST_EXECUTOR.execute(adUnitId, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onHandleIntent(intent);
+                    } finally {
+                        requestHandled();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Failed to submit request.", e);
+            PENDING_ADUNITS.remove(adUnitId);
+            requestHandled();
+        }
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Count a handled request and stop the service after the last one.
+     */
+    private void requestHandled() {
+        boolean last;
+        synchronized (this) {
+            last = pendingRequests == 1;
+        }
+        if (last) {
+            // the process may be killed once no service is running, persist the buffered writes on this
+            // background thread first. The lock is not held, onStartCommand() must not wait for the disk.
+            WriteBehindQueue.flushAll();
+        }
+
+        synchronized (this) {
+            pendingRequests--;
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * Stop the service if it has no pending requests. A request that has been started meanwhile keeps the
+     * service running, stopSelf(int) only stops it when the start id is the latest one.
+     */
+    private synchronized void stopIfIdle() {
+        if (pendingRequests == 0) {
+            stopSelf(lastStartId);
+        }
+    }
+
+    /**
+     * Replace the executor the requests are handled on.
+     * @param executor  the new executor.
+     */
+    static void setRequestExecutor(Executor executor) {
+        REQUEST_EXECUTOR.setExecutor(executor);
+    }
+
+    /**
+     * Handle a request on a worker thread.
+     *
+     * @param intent    the request created by {@link #createIntent}.
+     */
+    void onHandleIntent(Intent intent) {
 
         AdUnitContext adUnitContext = (AdUnitContext) intent.getParcelableExtra(IntentConstants.EXTRA_ADUNIT_CONTEXT);
 
-        AdUnitAllocation adUnitAllocation = getAdUnitAllocation(adUnitContext);
+        AdUnitAllocation adUnitAllocation;
+        try {
+            adUnitAllocation = getAdUnitAllocation(adUnitContext);
+        } finally {
+            // requests that arrive from now on may see a different allocation.
+            PENDING_ADUNITS.remove(adUnitContext.getAdUnitId());
+        }
 
         if (adUnitAllocation != null) {
-            Ration ration = getRandomRation(adUnitAllocation.getRations());
+            Ration ration = ALLOCATION_CACHE.getRationSelector(adUnitContext.getAdUnitId(), adUnitAllocation).select();
+            if (ration == null) {
+                Log.i(LOG_TAG, "Sum of ration weights is 0 - no ads to be shown");
+                return;
+            }
 
-            // send response through broadcast mechanism.
-            // all active LocadzLayout will receive this message, they have to filter message by themselves.
+            // deliver the response in-process, only the AdUnitLayouts of this adunit will receive it.
             Intent response = new Intent(IntentConstants.ACTION_SHOW_AD);
 
             response.putExtra(IntentConstants.EXTRA_ADUNIT_ID, adUnitContext.getAdUnitId());
             response.putExtra(IntentConstants.EXTRA_RATION, ration);
             response.putExtra(IntentConstants.EXTRA_EXTRA, adUnitAllocation.getExtra());
+            response.putExtra(IntentConstants.EXTRA_ROLLOVERS, new ArrayList<Ration>(adUnitAllocation.getRations()));
 
-            sendBroadcast(response);
+            ShowAdDispatcher.dispatch(response);
         }
     }
 
     /**
-     * Select a random ration form the provided rations.
-     * @param rations   the candidates.
-     * @return a random ration from the candidates.
+     * Get the allocation configuration for the adunit.<p/>
+     *
+     * An expired configuration is returned right away and refreshed in the background, unless it is older than
+     * the maximum staleness. Only when there is no usable configuration, this method blocks on the network.
+     *
+     * @param adUnitContext the context of the adunit.
+     * @return the allocation configuration for the adunit.
      */
-    private Ration getRandomRation(List<Ration> rations) {
+    AdUnitAllocation getAdUnitAllocation(AdUnitContext adUnitContext) {
+        String adUnitId = adUnitContext.getAdUnitId();
 
-        Random random = new Random();
-        int targetWeight = random.nextInt(100);
-        int c = 0;
-        Ration ret = null;
-        Iterator<Ration> it = rations.iterator();
+        AdUnitAllocation ret = ALLOCATION_CACHE.get(adUnitId);
+        if (ret != null) {
+            return ret;
+        }
 
-        while (it.hasNext()) {
-            ret = it.next();
-            c += ret.getWeight();
-            if (c >= targetWeight) {
-                break;
+        // a single read of the store serves both the fresh and the stale case.
+        AdUnitAllocationStore.Record stored = readStore(adUnitContext);
+        long age = stored == null ? Long.MAX_VALUE : System.currentTimeMillis() - stored.getTimestamp();
+        if (age <= CACHE_EXPIRATION_PERIOD) {
+            ret = parse(adUnitId, stored);
+            if (ret != null) {
+                return ret;
             }
         }
 
-        return ret;
+        // stale-while-revalidate, while offline a config of any age is better than none.
+        boolean connected = ConnectivityMonitor.getInstance(getApplicationContext()).isConnected();
+        long maxStaleness = connected ? CACHE_MAX_STALENESS : Long.MAX_VALUE;
+        ret = ALLOCATION_CACHE.getStale(adUnitId);
+        if (ret == null && stored != null && age > CACHE_EXPIRATION_PERIOD && age <= maxStaleness) {
+            ret = parse(adUnitId, stored);
+        }
+        if (ret != null) {
+            submitRefresh(adUnitContext);
+            return ret;
+        }
+
+        // loadFromRemote() persists the config and caches the parsed copy by itself.
+        String jsonString = loadFromRemote(adUnitContext);
+        ret = ALLOCATION_CACHE.get(adUnitId);
+        return ret != null ? ret : parse(adUnitId, jsonString, System.currentTimeMillis());
     }
 
     /**
-     * Get the allocation configuration for the adunit.
+     * Refresh the allocation configuration for the adunit in the background. Does nothing if a refresh for the
+     * adunit is in progress already. The refresh counts as a pending request, so that the service stays started
+     * and keeps the process alive until the refresh is done.
+     *
      * @param adUnitContext the context of the adunit.
-     * @return the allocation configuration for the adunit.
      */
-    AdUnitAllocation getAdUnitAllocation(AdUnitContext adUnitContext) {
-        String jsonString = loadFromSharedPreferences(adUnitContext);
+    void submitRefresh(final AdUnitContext adUnitContext) {
+        final String adUnitId = adUnitContext.getAdUnitId();
+        if (!REFRESHING_ADUNITS.add(adUnitId)) {
+            return;
+        }
 
+        synchronized (this) {
+            pendingRequests++;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loadFromRemote(adUnitContext);
+                    } finally {
+                        REFRESHING_ADUNITS.remove(adUnitId);
+                        requestHandled();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REFRESHING_ADUNITS.remove(adUnitId);
+            requestHandled();
+            Log.w(LOG_TAG, "Failed to submit config refresh.", e);
+        }
+    }
+
+    /**
+     * Replace the executor of the background refreshes.
+     * @param executor  the new executor.
+     */
+    static void setRefreshExecutor(Executor executor) {
+        refreshExecutor = executor;
+    }
+
+    /**
+     * Parse a stored json config and put it into the in-memory cache.
+     *
+     * @param adUnitId  the id of the adunit.
+     * @param stored    the stored config.
+     * @return the allocation configuration for the adunit or null.
+     */
+    private AdUnitAllocation parse(String adUnitId, AdUnitAllocationStore.Record stored) {
+        if (stored.getConfig().length == 0) {
+            return null;
+        }
+        try {
+            AdUnitAllocation ret = SerializationUtils.fromJson(stored.getConfig(), AdUnitAllocation.class);
+            ALLOCATION_CACHE.put(adUnitId, ret, stored.getTimestamp());
+            return ret;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Failed to de-serialize json config.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Parse the json config and put it into the in-memory cache.
+     *
+     * @param adUnitId      the id of the adunit.
+     * @param jsonString    the json config or null.
+     * @param timestamp     the time when the config was fetched from the remote source.
+     * @return the allocation configuration for the adunit or null.
+     */
+    private AdUnitAllocation parse(String adUnitId, String jsonString, long timestamp) {
         if (jsonString == null || "".equals(jsonString)) {
-            jsonString = loadFromRemote(adUnitContext);
-            if (jsonString != null) {
-                writeSharedPreferences(adUnitContext, jsonString);
-            }
+            return null;
         }
         try {
-            if (jsonString != null) {
-                return SerializationUtils.fromJson(jsonString, AdUnitAllocation.class);
-            }
+            AdUnitAllocation ret = SerializationUtils.fromJson(jsonString, AdUnitAllocation.class);
+            ALLOCATION_CACHE.put(adUnitId, ret, timestamp);
+            return ret;
         } catch (IOException e) {
             Log.d(LOG_TAG, "Failed to de-serialize json config.", e);
         }
@@ -123,79 +396,345 @@ public final class AdUnitAllocationService extends IntentService {
     }
 
     /**
-     * load the allocation configuration for the adunit from SharedPreferences.
+     * Remove all parsed allocations from the in-memory cache.
+     */
+    static void clearAllocationCache() {
+        ALLOCATION_CACHE.clear();
+    }
+
+    /**
+     * Forget the failed fetches, the next fetch of every adunit goes to the network.
+     */
+    static void clearFetchBackoffs() {
+        FETCH_BACKOFFS.clear();
+    }
+
+    /**
+     * Record the outcome of a fetch.
+     *
+     * @param adUnitId  the id of the adunit.
+     * @param failed    true if the fetch failed.
+     */
+    private static void recordFetch(String adUnitId, boolean failed) {
+        if (!failed) {
+            FETCH_BACKOFFS.remove(adUnitId);
+            return;
+        }
+
+        Backoff backoff = FETCH_BACKOFFS.get(adUnitId);
+        if (backoff == null) {
+            backoff = new Backoff(FETCH_RETRY_MIN_DELAY, FETCH_RETRY_MAX_DELAY);
+            Backoff existing = FETCH_BACKOFFS.putIfAbsent(adUnitId, backoff);
+            if (existing != null) {
+                backoff = existing;
+            }
+        }
+        long delay = backoff.failure(System.currentTimeMillis());
+        Log.d(LOG_TAG, String.format("Fetch #%d of %s failed, retrying in %d ms", backoff.getFailures(), adUnitId, delay));
+    }
+
+    /**
+     * @return the store of the allocation configurations.
+     */
+    private AdUnitAllocationStore getStore() {
+        return AdUnitAllocationStore.getInstance(this.getApplicationContext());
+    }
+
+    /**
+     * read the stored allocation configuration for the adunit. A configuration stored in SharedPreferences by an
+     * older version of the SDK is moved to the store on the first read.
+     *
+     * @param adUnitContext the context of the adunit.
+     * @return the stored configuration or null.
+     */
+    AdUnitAllocationStore.Record readStore(AdUnitContext adUnitContext) {
+        String adUnitId = adUnitContext.getAdUnitId();
+        try {
+            AdUnitAllocationStore.Record ret = getStore().read(adUnitId);
+            return ret != null ? ret : migrateSharedPreferences(adUnitId);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read stored config.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Move the allocation configuration of an older version of the SDK from SharedPreferences to the store.
+     *
+     * @param adUnitId  the id of the adunit.
+     * @return the migrated configuration or null if there is none.
+     * @throws IOException when the config cannot be encoded.
+     */
+    private AdUnitAllocationStore.Record migrateSharedPreferences(String adUnitId) throws IOException {
+        SharedPreferences perfs = this.getApplicationContext().getSharedPreferences(adUnitId, Context.MODE_PRIVATE);
+        String config = perfs.getString(LEGACY_PREFS_STRING_CONFIG, null);
+        if (config == null) {
+            return null;
+        }
+
+        AdUnitAllocationStore.Record ret = new AdUnitAllocationStore.Record(
+            perfs.getLong(LEGACY_PREFS_STRING_TIMESTAMP, 0),
+            perfs.getString(LEGACY_PREFS_STRING_ETAG, null),
+            perfs.getString(LEGACY_PREFS_STRING_LAST_MODIFIED, null),
+            config.getBytes(CHARSET_UTF8));
+        getStore().write(adUnitId, ret);
+        perfs.edit().clear().commit();
+        return ret;
+    }
+
+    /**
+     * load the allocation configuration for the adunit from the store.
      *
      * @param adUnitContext the context of the adunit.
      * @return the allocation configuration for the adunit.
      */
-    String loadFromSharedPreferences(AdUnitContext adUnitContext) {
-        SharedPreferences perfs = this.getApplicationContext()
-            .getSharedPreferences(adUnitContext.getAdUnitId(), Context.MODE_PRIVATE);
+    String loadFromStore(AdUnitContext adUnitContext) {
+        return loadFromStore(adUnitContext, CACHE_EXPIRATION_PERIOD);
+    }
 
-        long lastUpdateTime = perfs.getLong(PREFS_STRING_TIMESTAMP, 0);
-        if (System.currentTimeMillis() - lastUpdateTime <= CACHE_EXPIRATION_PERIOD) {
-            return perfs.getString(PREFS_STRING_CONFIG, "");
+    /**
+     * load the allocation configuration for the adunit from the store if it is not older than the given age.
+     *
+     * @param adUnitContext the context of the adunit.
+     * @param maxAge        the maximum age of the configuration in ms.
+     * @return the allocation configuration for the adunit or null.
+     */
+    String loadFromStore(AdUnitContext adUnitContext, long maxAge) {
+        AdUnitAllocationStore.Record stored = readStore(adUnitContext);
+        if (stored != null && System.currentTimeMillis() - stored.getTimestamp() <= maxAge) {
+            try {
+                return new String(stored.getConfig(), CHARSET_UTF8);
+            } catch (UnsupportedEncodingException shouldNeverHappen) {
+                throw new IllegalStateException(shouldNeverHappen);
+            }
         }
         return null;
     }
 
     /**
-     * write the allocation configuration for the adunit to SharedPreferences.
+     * write the allocation configuration for the adunit to the store.
      *
      * @param adUnitContext the context of the adunit.
      * @param config        the configuration as a json String.
      *
      */
-    void writeSharedPreferences(AdUnitContext adUnitContext, String config) {
-        SharedPreferences perfs = this.getApplicationContext()
-            .getSharedPreferences(adUnitContext.getAdUnitId(), Context.MODE_PRIVATE);
+    void writeToStore(AdUnitContext adUnitContext, String config) {
+        try {
+            writeToStore(adUnitContext, config.getBytes(CHARSET_UTF8), null, null);
+        } catch (UnsupportedEncodingException shouldNeverHappen) {
+            throw new IllegalStateException(shouldNeverHappen);
+        }
+    }
 
-        SharedPreferences.Editor editor = perfs.edit();
-        editor.putString(PREFS_STRING_CONFIG, config);
-        editor.putLong(PREFS_STRING_TIMESTAMP, System.currentTimeMillis());
-        editor.commit();
+    /**
+     * write the allocation configuration for the adunit and its cache validators to the store.
+     *
+     * @param adUnitContext the context of the adunit.
+     * @param config        the raw json configuration.
+     * @param etag          the ETag header of the response or null.
+     * @param lastModified  the Last-Modified header of the response or null.
+     */
+    void writeToStore(AdUnitContext adUnitContext, byte[] config, String etag, String lastModified) {
+        String adUnitId = adUnitContext.getAdUnitId();
+        getStore().write(adUnitId,
+            new AdUnitAllocationStore.Record(System.currentTimeMillis(), etag, lastModified, config));
+
+        // the parsed copy is stale now, it will be re-populated by the next getAdUnitAllocation().
+        ALLOCATION_CACHE.remove(adUnitId);
+    }
+
+    /**
+     * mark the stored allocation configuration for the adunit as fresh, the server has confirmed it is unchanged.
+     *
+     * @param adUnitContext the context of the adunit.
+     * @param stored        the stored configuration.
+     */
+    private void touchStore(AdUnitContext adUnitContext, AdUnitAllocationStore.Record stored) {
+        String adUnitId = adUnitContext.getAdUnitId();
+        long now = System.currentTimeMillis();
+        getStore().write(adUnitId, stored.withTimestamp(now));
+
+        // the parsed copy is still valid.
+        ALLOCATION_CACHE.touch(adUnitId, now);
     }
 
     /**
-     * load the allocation configuration for the adunit from external source.
+     * load the allocation configuration for the adunit from external source and store it.<p/>
+     *
+     * If a configuration has been stored before, the request is conditional on its ETag/Last-Modified and a
+     * 304 response only refreshes the timestamp of the stored configuration.<p/>
+     *
+     * After a failed fetch, the adunit is not fetched again until its backoff has passed.
      *
      * @param adUnitContext the context of the adunit.
-     * @return the allocation configuration for the adunit as a json string.
+     * @return the allocation configuration for the adunit as a json string, null if the fetch failed or is
+     *         backing off.
      */
     String loadFromRemote(AdUnitContext adUnitContext) {
 
+        String adUnitId = adUnitContext.getAdUnitId();
+        Backoff backoff = FETCH_BACKOFFS.get(adUnitId);
+        if (backoff != null && !backoff.isAllowed(System.currentTimeMillis())) {
+            Log.d(LOG_TAG, String.format("Skipping fetch of %s, backing off for %d ms", adUnitId,
+                backoff.getRetryTime() - System.currentTimeMillis()));
+            return null;
+        }
+        if (!ConnectivityMonitor.getInstance(getApplicationContext()).isConnected()) {
+            Log.d(LOG_TAG, String.format("Skipping fetch of %s, the device is offline", adUnitId));
+            return null;
+        }
+
         Log.d(LOG_TAG, String.format("Fetching config with %s", adUnitContext));
 
+        AdUnitAllocationStore.Record stored = readStore(adUnitContext);
+
         HttpClient httpClient = HttpClientFactory.getInstance();
         URI uri = LocadzUtils.getInfoUri(adUnitContext);
         HttpGet httpGet = new HttpGet(uri);
 
+        // only revalidate when there is a config to fall back to.
+        boolean conditional = false;
+        if (stored != null && stored.getConfig().length > 0) {
+            if (stored.getEtag() != null) {
+                httpGet.addHeader(HEADER_IF_NONE_MATCH, stored.getEtag());
+                conditional = true;
+            }
+            if (stored.getLastModified() != null) {
+                httpGet.addHeader(HEADER_IF_MODIFIED_SINCE, stored.getLastModified());
+                conditional = true;
+            }
+        }
+
         String ret = null;
+        boolean failed = true;
+        HttpResponse httpResponse = null;
         try {
 
-            HttpResponse httpResponse = httpClient.execute(httpGet);
+            httpResponse = httpClient.execute(httpGet);
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+
+            if (conditional && statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                Log.d(LOG_TAG, "Stored config is not modified.");
+                touchStore(adUnitContext, stored);
+                ret = new String(stored.getConfig(), CHARSET_UTF8);
+                failed = false;
 
             // if response is 1xx, 2xx or 3xx, we would return the response body
-            if (httpResponse.getStatusLine().getStatusCode() < HttpStatus.SC_BAD_REQUEST) {
+            } else if (statusCode < HttpStatus.SC_BAD_REQUEST) {
                 Log.d(LOG_TAG, httpResponse.getStatusLine().toString());
 
                 HttpEntity entity = httpResponse.getEntity();
+                ByteArrayOutputStream raw = null;
+                AdUnitAllocation allocation = null;
                 if (entity != null) {
-                    ret = EntityUtils.toString(entity);
+                    raw = new ByteArrayOutputStream(getInitialBufferSize(entity));
+                    allocation = readEntity(entity, raw);
+                }
+
+                if (allocation != null) {
+                    // the raw bytes go to the store as they are.
+                    writeToStore(adUnitContext, raw.toByteArray(),
+                        getHeaderValue(httpResponse, HEADER_ETAG), getHeaderValue(httpResponse, HEADER_LAST_MODIFIED));
+                    ALLOCATION_CACHE.put(adUnitContext.getAdUnitId(), allocation, System.currentTimeMillis());
+                    ret = raw.toString(CHARSET_UTF8);
+                    failed = false;
+                } else {
+                    // keep the stored config and its validators, and back off like on any other failure.
+                    Log.w(LOG_TAG, "Discarding a response without a valid config.");
                 }
             }
         } catch (ClientProtocolException e) {
             Log.e(LOG_TAG, "Caught ClientProtocolException in loadFromRemote()", e);
+            httpGet.abort();
         } catch (IOException e) {
             Log.e(LOG_TAG, "Caught IOException in loadFromRemote()", e);
+            // the connection is in an unknown state, close it rather than returning it to the pool.
+            httpGet.abort();
+        } finally {
+            releaseConnection(httpResponse);
         }
+        recordFetch(adUnitId, failed);
         
         if(Log.isLoggable(LOG_TAG, Log.DEBUG)) {
             Log.d(LOG_TAG, String.format("Fetched Allocations is %s", ret));
+            Log.d(LOG_TAG, String.format("Compressed responses so far: %d bytes transferred, %d bytes decompressed",
+                DecompressingEntity.getCompressedBytes(), DecompressingEntity.getUncompressedBytes()));
         }
         return ret;
     }
 
+    /**
+     * Parse the response body while it is streamed from the network and copy the raw bytes in the same pass,
+     * instead of buffering the body as a String and parsing that String again.
+     *
+     * @param entity    the response body.
+     * @param raw       receives the raw bytes of the response body.
+     * @return the allocation configuration or null if the body is not a valid configuration.
+     * @throws IOException when read fails.
+     */
+    private static AdUnitAllocation readEntity(HttpEntity entity, ByteArrayOutputStream raw) throws IOException {
+        TeeInputStream in = new TeeInputStream(entity.getContent(), raw);
+        try {
+            AdUnitAllocation ret = null;
+            try {
+                ret = SerializationUtils.fromJson(in, AdUnitAllocation.class);
+            } catch (JsonProcessingException e) {
+                Log.d(LOG_TAG, "Failed to de-serialize json config.", e);
+            } catch (EOFException e) {
+                // an empty body is not an error of the transport.
+                if (raw.size() > 0) {
+                    throw e;
+                }
+            }
+
+            // the raw copy has to be complete even if the parser stopped early.
+            in.drain();
+            return ret;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the connection of a response to the pool by consuming the rest of its body, e.g. of an error
+     * response whose body has not been read.
+     *
+     * @param httpResponse  the response or null.
+     */
+    private static void releaseConnection(HttpResponse httpResponse) {
+        HttpEntity entity = httpResponse == null ? null : httpResponse.getEntity();
+        if (entity != null) {
+            try {
+                entity.consumeContent();
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Failed to release the connection.", e);
+            }
+        }
+    }
+
+    /**
+     * @param entity    the response body.
+     * @return the size of the buffer for the raw response body.
+     */
+    private static int getInitialBufferSize(HttpEntity entity) {
+        long contentLength = entity.getContentLength();
+        if (contentLength <= 0) {
+            return RESPONSE_BUFFER_SIZE;
+        }
+        // do not trust the server with the allocation size.
+        return (int) Math.min(contentLength, MAX_RESPONSE_BUFFER_SIZE);
+    }
+
+    /**
+     * @param httpResponse  the response.
+     * @param name          the name of the header.
+     * @return the value of the first header with the name or null.
+     */
+    private static String getHeaderValue(HttpResponse httpResponse, String name) {
+        Header header = httpResponse.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
     /**
      * Create an intent that will trigger this service.
      * @param context       the context to send the intent to.
@@ -206,6 +745,8 @@ public final class AdUnitAllocationService extends IntentService {
     public static Intent createIntent(Context context, AdUnitContext adUnitContext) {
         Intent ret = new Intent(context, AdUnitAllocationService.class);
         ret.putExtra(IntentConstants.EXTRA_ADUNIT_CONTEXT, adUnitContext);
+        // requests of the same adunit are merged, see onStartCommand().
+        ret.putExtra(IntentConstants.EXTRA_ADUNIT_ID, adUnitContext.getAdUnitId());
         return ret;
     }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.content.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * File store of the raw json allocation configs, one small file per ad unit.<p/>
+ *
+ * A file starts with a header carrying the schema version, the fetch timestamp and the cache validators of the
+ * response, followed by the raw json bytes as they were received. Files are read with a single sequential read
+ * and replaced through an atomic rename, so a reader never sees a partially written config. Unlike a
+ * SharedPreferences XML file, writing the config of one ad unit does not rewrite the configs of the others.<p/>
+ *
+ * Writes are buffered by a {@link WriteBehindQueue} and reach the disk on the housekeeping thread of the SDK, so
+ * the worker thread of the service never waits for the disk. Reads see the buffered writes.
+ */
+final class AdUnitAllocationStore {
+
+    /** the configs of a store live in their own directory. */
+    static final String DIRECTORY_NAME = "locadz_allocations";
+
+    private static final int MAGIC = 0x4c41435a; // "LACZ"
+
+    /** bump when the layout of the file changes, files of other versions are ignored. */
+    private static final int SCHEMA_VERSION = 1;
+
+    private static final String FILE_SUFFIX = ".cfg";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /** A stored allocation config. */
+    static final class Record {
+
+        private final long timestamp;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        private final byte[] config;
+
+        /**
+         * @param timestamp     the time when the config was fetched or last revalidated.
+         * @param etag          the ETag header of the response or null.
+         * @param lastModified  the Last-Modified header of the response or null.
+         * @param config        the raw json config.
+         */
+        Record(long timestamp, String etag, String lastModified, byte[] config) {
+            this.timestamp = timestamp;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.config = config;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        byte[] getConfig() {
+            return config;
+        }
+
+        /**
+         * @param newTimestamp  the new timestamp.
+         * @return a copy of this record with the given timestamp.
+         */
+        Record withTimestamp(long newTimestamp) {
+            return new Record(newTimestamp, etag, lastModified, config);
+        }
+    }
+
+    /** the store of the application, the queue of pending writes has to be shared by all users. */
+    private static AdUnitAllocationStore instance;
+
+    private final File directory;
+
+    private final WriteBehindQueue<Record> writes;
+
+    /**
+     * @param directory the directory of the config files, created on the first write.
+     */
+    AdUnitAllocationStore(File directory) {
+        this.directory = directory;
+        this.writes = new WriteBehindQueue<Record>(new WriteBehindQueue.Sink<Record>() {
+            @Override
+            public void write(String adUnitId, Record record) throws IOException {
+                writeFile(adUnitId, record);
+            }
+        }, RotationScheduler.getHousekeepingExecutor());
+    }
+
+    /**
+     * @param context   the context.
+     * @return the store in the private files directory of the application.
+     */
+    static synchronized AdUnitAllocationStore getInstance(Context context) {
+        File directory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        if (instance == null || !instance.directory.equals(directory)) {
+            if (instance != null) {
+                instance.close();
+            }
+            instance = new AdUnitAllocationStore(directory);
+        }
+        return instance;
+    }
+
+    /**
+     * Read the stored config of an ad unit.
+     *
+     * @param adUnitId  the id of the ad unit.
+     * @return the stored config or null if there is none or it is unreadable.
+     * @throws IOException when read fails.
+     */
+    Record read(String adUnitId) throws IOException {
+        Record pending = writes.get(adUnitId);
+        if (pending != null) {
+            return pending;
+        }
+
+        File file = getFile(adUnitId);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        byte[] content = readFully(file);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != SCHEMA_VERSION) {
+                return null;
+            }
+            long timestamp = in.readLong();
+            String etag = readNullableString(in);
+            String lastModified = readNullableString(in);
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                return null;
+            }
+            byte[] config = new byte[length];
+            in.readFully(config);
+            return new Record(timestamp, etag, lastModified, config);
+        } catch (IOException e) {
+            // a truncated file of an older build, treat it as missing.
+            return null;
+        }
+    }
+
+    /**
+     * Replace the stored config of an ad unit in the background. A config that has not been written yet is
+     * replaced by the newer one.
+     *
+     * @param adUnitId  the id of the ad unit.
+     * @param record    the config to store.
+     */
+    void write(String adUnitId, Record record) {
+        writes.put(adUnitId, record);
+    }
+
+    /**
+     * Write the buffered configs to the disk on the calling thread.
+     */
+    void flush() {
+        writes.flush();
+    }
+
+    /**
+     * Write the buffered configs and release the write queue, the store must not be written afterwards.
+     */
+    void close() {
+        writes.close();
+    }
+
+    /**
+     * Replace the executor of the background writes.
+     * @param executor  the new executor.
+     */
+    void setFlushExecutor(Executor executor) {
+        writes.setExecutor(executor);
+    }
+
+    /**
+     * Replace the config file of an ad unit atomically.
+     *
+     * @param adUnitId  the id of the ad unit.
+     * @param record    the config to store.
+     * @throws IOException when write fails, the previously stored config is left untouched.
+     */
+    private void writeFile(String adUnitId, Record record) throws IOException {
+        byte[] config = record.getConfig();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(config.length + 256);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(SCHEMA_VERSION);
+        out.writeLong(record.getTimestamp());
+        writeNullableString(out, record.getEtag());
+        writeNullableString(out, record.getLastModified());
+        out.writeInt(config.length);
+        out.write(config);
+        out.flush();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        File temp = new File(directory, encode(adUnitId) + TEMP_FILE_SUFFIX);
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            buffer.writeTo(stream);
+            stream.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(getFile(adUnitId))) {
+            temp.delete();
+            throw new IOException("Failed to rename " + temp);
+        }
+    }
+
+    /**
+     * Delete the stored configs of all ad units, including the ones that have not been written yet.
+     */
+    void clear() {
+        writes.clear();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param adUnitId  the id of the ad unit.
+     * @return the config file of the ad unit.
+     */
+    private File getFile(String adUnitId) {
+        return new File(directory, encode(adUnitId) + FILE_SUFFIX);
+    }
+
+    /**
+     * @param adUnitId  the id of the ad unit.
+     * @return a file name for the ad unit id, ad unit ids are assigned by the server and not trusted as paths.
+     */
+    private static String encode(String adUnitId) {
+        StringBuilder ret = new StringBuilder(adUnitId.length());
+        for (int i = 0; i < adUnitId.length(); i++) {
+            char c = adUnitId.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                ret.append(c);
+            } else {
+                ret.append('%').append(String.format("%04x", (int) c));
+            }
+        }
+        return ret.toString();
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] ret = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < ret.length) {
+                int read = in.read(ret, offset, ret.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+            return ret;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -18,15 +18,14 @@ package com.locadz;
 
 import android.Manifest;
 import android.app.Activity;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
@@ -37,8 +36,7 @@ import com.locadz.model.Extra;
 import com.locadz.model.Ration;
 
 import java.lang.ref.WeakReference;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.List;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -49,8 +47,8 @@ import static com.locadz.LocadzUtils.LOG_TAG;
  *
  * Workflow:
  * <ol>
- *  <li>When layout is added to an Activity. The AdUnitLayout would register a {@link BroadcastReceiver}
- *      to receive SHOW_AD response.</li>
+ *  <li>When layout is added to an Activity. The AdUnitLayout would register a
+ *      {@link ShowAdDispatcher.ShowAdListener} to receive SHOW_AD response of its adunit.</li>
  *  <li>Periodically, the AdUnitLayout would send a {@link Intent} to {@link AdUnitAllocationService} to fetch the
  *      next AD to show.</li>
  *  <li>{@link AdUnitAllocationService} will reply the request in a SHOW_AD Intent. When the {@link AdUnitLayout}
@@ -62,7 +60,8 @@ import static com.locadz.LocadzUtils.LOG_TAG;
  *
  * <ul>
  *    <li>If the {@link AdWhirlAdapter}, fails to fetch new ADs. The {@link AdWhirlAdapter} is responsible to
- *    call {@link #submitReloadAdRequest()} to trigger loading new adapter immediately.</li>
+ *    call {@link #submitRolloverRequest(Ration)} to trigger loading the adapter of the next network in priority
+ *    order immediately. Networks that already failed in the current cycle are skipped.</li>
  *    <li>If a {@link AdWhirlAdapter} derived classes fails to do so, the previous adapter will still occupy
  *      the space until next SHOW_AD request and response comming from {@link AdUnitAllocationService}</li>
  * </ul>
@@ -70,7 +69,8 @@ import static com.locadz.LocadzUtils.LOG_TAG;
  *  <ul>
  *      <li>When the parent Activity is not visible, this layout should stop sending intents to {@link AdUnitAllocationService}</li>
  *      <li>When the parent Activity is visible again, this layout should start to send intents to {@link AdUnitAllocationService}
- *          using the previous used cycle time.</li>
+ *          using the previous used cycle time. The remaining portion of the interrupted cycle is honoured, if it
+ *          has elapsed while the Activity was invisible, a single reload is sent right away.</li>
  *  </ul>
  *
  * An {@link AdvertisingPreference} is hold in this layout which couled be used in {@link AdWhirlAdapter} to configure the preference of advertising.
@@ -87,11 +87,22 @@ import static com.locadz.LocadzUtils.LOG_TAG;
  * </code></pre>
  *
  * TODO: add fetch location code.
- * TODO: implements stop scheduling when activity is not visible.
  */
 public class AdUnitLayout extends RelativeLayout {
 
     public static final int GET_LOCATION_TIMEOUT = 30000;
+
+    /** the default lead time of prefetching the next ad. */
+    public static final long DEFAULT_PREFETCH_LEAD_TIME = 5 * 1000; // 5 seconds.
+
+    /** builds the json (de)serializers of the models, only the first run does anything. */
+    private static final Runnable SERIALIZATION_WARM_UP = new Runnable() {
+        @Override
+        public void run() {
+            SerializationUtils.warmUp();
+        }
+    };
+
     /** the adUnitId of this layout. */
     private String adUnitId;
 
@@ -101,25 +112,73 @@ public class AdUnitLayout extends RelativeLayout {
     /** some adView require activity so that we store it here. **/
     private WeakReference<Activity> activityReference;
 
-    /** the boardcast receiver, we have to un-register by ourself when the layout is detach from the parent Activity. */
+    /** the SHOW_AD listener, we have to un-register by ourself when the layout is detach from the parent Activity. */
     private ShowAdIntentReceiver adIntentReceiver;
 
+    /** refreshes the ad unit when the network returns. */
+    private ReconnectReceiver reconnectReceiver;
+
     // Added so we can tell the previous adapter that it is being destroyed.
+    /** the adapter of the view that was on the screen before {@link #shownAdapter}. */
     private AdWhirlAdapter previousAdapter;
+    /** the adapter of the latest request, still loading or already pushed its view. */
     private AdWhirlAdapter currentAdapter;
 
-    /** scheduler for executing some command periodically. */
-    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    /** the ration and extra of the current adapter. */
+    private Ration currentRation;
+    private Extra currentExtra;
+
+    /** the fallback networks of the current cycle, only accessed in the main thread. */
+    private RolloverChain rollovers;
+
+    /** guards {@link #scheduledReload}, the reloads themselves run on the shared {@link RotationScheduler}. */
+    private final Object scheduleLock = new Object();
 
     /**
      * the current scheduled reload request. When the cycle time changes, we need to cancel current scheduled action
      * and create a new one.
      */
-    private ScheduledFuture scheduledReload;
+    private ScheduledFuture<?> scheduledReload;
+
+    /** whether the layout has been detached from the window since it was created. */
+    private boolean detached;
+
+    /** whether the reloads are suspended because the parent Activity is invisible. */
+    private boolean reloadPaused;
+
+    /** when the interrupted cycle would have ended, in the {@link SystemClock#elapsedRealtime()} time base. */
+    private long pausedReloadTime;
 
     /** number indicate how often shall this layout flip adapters. */
     private long cycleTime = 30 * 1000; // 30 seconds.
 
+    /** true to stretch the cycle time of the server on mobile networks and a low battery. */
+    private volatile boolean adaptiveCycleTime = true;
+
+    /** how long before the end of a cycle the ad of the next cycle starts loading, 0 to disable prefetching. */
+    private long prefetchLeadTime = DEFAULT_PREFETCH_LEAD_TIME;
+
+    /** when the current ad view was shown, in the {@link SystemClock#uptimeMillis()} time base. */
+    private long lastSwapTime;
+
+    /** a view pushed before this time is a prefetched ad and is held until then, in the uptimeMillis time base. */
+    private long swapTime;
+
+    /** the loaded ad of the next cycle, waiting for the current cycle to end. */
+    private ViewGroup prefetchedView;
+
+    /** the adapter and ration that loaded {@link #prefetchedView}, and when. */
+    private AdWhirlAdapter prefetchedAdapter;
+    private Ration prefetchedRation;
+    private long prefetchLoadTime;
+
+    /** the adapter and ration of the view on the screen. */
+    private AdWhirlAdapter shownAdapter;
+    private Ration shownRation;
+
+    /** shows {@link #prefetchedView} at {@link #swapTime}. */
+    private SwapAdRunnable swapAdRunnable;
+
     /**
      * Indicate whether the parent Activity is visible or not. The {@link View#getVisibility()} returns the visibility
      * of a View. But a view can be visible while the parent Activity is still invisible.
@@ -193,16 +252,74 @@ public class AdUnitLayout extends RelativeLayout {
      */
     public AdvertisingPreference getAdvertisingPreference() { return new AdvertisingPreference(this.advertisingPreference); }
 
+    /**
+     * Sets how long before the end of a cycle the ad of the next cycle starts loading. The loaded ad is kept
+     * off-screen and replaces the current ad when the cycle ends. The lead time is capped at half of the cycle
+     * time.<p>
+     *
+     * @param prefetchLeadTime the lead time in ms, 0 to load the next ad only when the cycle ends.
+     */
+    public void setPrefetchLeadTime(long prefetchLeadTime) {
+        if (prefetchLeadTime < 0) {
+            throw new IllegalArgumentException("prefetchLeadTime must not be negative.");
+        }
+        synchronized (scheduleLock) {
+            this.prefetchLeadTime = prefetchLeadTime;
+        }
+    }
+
+    /**
+     * Sets whether the cycle time of the server is stretched on mobile networks and on a low battery, to save the
+     * radio wakeups of the rotations. The cycle time of the server is never shortened. Enabled by default.<p>
+     *
+     * @param adaptiveCycleTime true to adapt the cycle time to the device state.
+     */
+    public void setAdaptiveCycleTime(boolean adaptiveCycleTime) {
+        this.adaptiveCycleTime = adaptiveCycleTime;
+    }
+
+    /**
+     * @param extra the extra of the allocation.
+     * @return the cycle time of the allocation for the current device state in ms.
+     */
+    private long getCycleTime(Extra extra) {
+        if (!adaptiveCycleTime) {
+            return extra.getCycleTime();
+        }
+        return RotationPolicy.getCycleTime(getContext(), extra.getCycleTime());
+    }
+
     /**
      * Submit a reload AD request asynchronously.
      *
      * TODO: find a better name for this function.
      */
     public void submitReloadAdRequest() {
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(getContext());
+        if (!monitor.isConnected()) {
+            // the request would only time out, the ad unit is refreshed when the network returns.
+            monitor.skipped(adUnitId);
+            return;
+        }
         Intent intent = AdUnitAllocationService.createIntent(this.getContext(), adUnitContext);
         getActivity().startService(intent);
     }
 
+    /**
+     * Submit a rollover request to Android's handler. The network of the failed ration is skipped for the rest
+     * of the current cycle and the adapter of the next network in priority order is loaded without going
+     * through {@link AdUnitAllocationService}.
+     *
+     * @param failedRation  the ration of the adapter that failed to fetch an AD.
+     */
+    public void submitRolloverRequest(Ration failedRation) {
+        // an adapter whose view has moved to the pool may call back after this layout has been detached.
+        Handler handler = getHandler();
+        if (handler != null) {
+            handler.post(new RolloverRunnable(this, failedRation));
+        }
+    }
+
     /**
      *  submit a push view request to Android's handler. This will remove
      *  old ad view and push a new one to this layout asynchronously.
@@ -210,8 +327,11 @@ public class AdUnitLayout extends RelativeLayout {
      * @param subView   the adview to push.
      */
     public void submitPushSubViewRequest(ViewGroup subView) {
-        Log.d(LocadzUtils.LOG_TAG, String.format("Scheduled pushSubView(%s)", subView));
-        getHandler().post(new ViewAdRunnable(this, subView));
+        Handler handler = getHandler();
+        if (handler != null) {
+            Log.d(LocadzUtils.LOG_TAG, String.format("Scheduled pushSubView(%s)", subView));
+            handler.post(new ViewAdRunnable(this, subView));
+        }
     }
 
     /**
@@ -250,11 +370,17 @@ public class AdUnitLayout extends RelativeLayout {
         setHorizontalScrollBarEnabled(false);
         setVerticalScrollBarEnabled(false);
 
+        // build the json deserializers before the first config arrives, off the main thread.
+        RotationScheduler.execute(SERIALIZATION_WARM_UP);
+
+        swapAdRunnable = new SwapAdRunnable(this);
+
         // register a new listener.
         adIntentReceiver = new ShowAdIntentReceiver(adUnitId, this);
-        IntentFilter intentFilter = new IntentFilter(IntentConstants.ACTION_SHOW_AD);
-        this.getContext().registerReceiver(adIntentReceiver, intentFilter);
+        ShowAdDispatcher.register(adUnitId, adIntentReceiver);
 
+        reconnectReceiver = new ReconnectReceiver(this);
+        ConnectivityMonitor.getInstance(context).addReconnectListener(reconnectReceiver);
 
         int accessLocationPermission = context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_COARSE_LOCATION);
         if (accessLocationPermission == PackageManager.PERMISSION_GRANTED) {
@@ -282,16 +408,89 @@ public class AdUnitLayout extends RelativeLayout {
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        AdViewPool.getInstance(adUnitId).attach(getContext());
+
+        // the listener is registered in init(), re-register it when the layout is re-attached, e.g. in a list.
+        if (detached) {
+            detached = false;
+            reclaimPooledViews();
+            ShowAdDispatcher.register(adUnitId, adIntentReceiver);
+            ConnectivityMonitor.getInstance(getContext()).addReconnectListener(reconnectReceiver);
+            scheduleReload(cycleTime);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void onDetachedFromWindow() {
-        this.getContext().unregisterReceiver(adIntentReceiver);
+        super.onDetachedFromWindow();
+
+        detached = true;
+        ShowAdDispatcher.unregister(adUnitId, adIntentReceiver);
+        ConnectivityMonitor.getInstance(getContext()).removeReconnectListener(reconnectReceiver);
+        cancelReload();
+
+        // lend the prefetched view to the other layouts of the ad unit, e.g. the row of a list that is bound next.
+        // The shown view stays, showing it again elsewhere would count its impression twice.
+        removeCallbacks(swapAdRunnable);
+        AdViewPool pool = AdViewPool.getInstance(adUnitId);
+        long now = SystemClock.uptimeMillis();
+        pool.purge(now);
+        if (prefetchedView != null) {
+            pool.offer(prefetchedView, prefetchedRation, prefetchedAdapter, prefetchLoadTime, now);
+        }
+        pool.detach(getContext());
     }
 
     /** {@inheritDoc} */
     @Override
     protected void onWindowVisibilityChanged (int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+
         visible = visibility == View.VISIBLE;
+        if (visible) {
+            resumeReload();
+        } else {
+            pauseReload();
+        }
+    }
+
+    /**
+     * Take back the view lent to the {@link AdViewPool} on detach, and forget its adapter if another layout has
+     * taken it or the pool has dropped it meanwhile.
+     */
+    private void reclaimPooledViews() {
+        AdViewPool pool = AdViewPool.getInstance(adUnitId);
+
+        if (prefetchedView != null) {
+            if (pool.withdraw(prefetchedView)) {
+                postDelayed(swapAdRunnable, Math.max(0, swapTime - SystemClock.uptimeMillis()));
+            } else {
+                forgetAdapter(prefetchedAdapter);
+                prefetchedView = null;
+                prefetchedAdapter = null;
+            }
+        }
+    }
+
+    /**
+     * Drop the references to an adapter owned by another layout now, so that it is not destroyed by this one.
+     * @param adapter   the adapter.
+     */
+    private void forgetAdapter(AdWhirlAdapter adapter) {
+        if (adapter == null) {
+            return;
+        }
+        if (previousAdapter == adapter) {
+            previousAdapter = null;
+        }
+        if (currentAdapter == adapter) {
+            currentAdapter = null;
+        }
     }
 
     /**
@@ -307,33 +506,158 @@ public class AdUnitLayout extends RelativeLayout {
      * @param delayMillis   delays between each reload in ms.
      */
     protected void scheduleReload(long delayMillis) {
-        synchronized (scheduler) {
+        synchronized (scheduleLock) {
+
+            if (reloadPaused) {
+                // resumeReload() will pick up the new cycle time.
+                cycleTime = delayMillis;
+                return;
+            }
 
             boolean requireReschedule = false;
             if (scheduledReload == null) {
                 requireReschedule = true;
             } else if (cycleTime != delayMillis) {
                 requireReschedule = true;
-                scheduledReload.cancel(true);
+                RotationScheduler.cancel(scheduledReload);
             }
 
             cycleTime = delayMillis;
 
             if (requireReschedule) {
-                scheduledReload = scheduler.scheduleWithFixedDelay(
+                // request the next ad early, so that it is loaded when the cycle ends.
+                scheduledReload = RotationScheduler.scheduleWithFixedDelay(
                     new ReloadAdRunnable(getActivity(), adUnitContext),
-                    cycleTime,
-                    cycleTime,
-                    TimeUnit.MILLISECONDS);
+                    cycleTime - getPrefetchLead(),
+                    cycleTime);
             }
         }
     }
 
     /**
-     *  Remove old ad views and push the new one.
+     * @return the effective lead time of prefetching in ms, guarded by {@link #scheduleLock}.
+     */
+    private long getPrefetchLead() {
+        return Math.min(prefetchLeadTime, cycleTime / 2);
+    }
+
+    /**
+     * Suspend reloading ADs while the parent Activity is invisible.
+     */
+    protected void pauseReload() {
+        synchronized (scheduleLock) {
+            if (scheduledReload != null && !reloadPaused) {
+                reloadPaused = true;
+                pausedReloadTime = SystemClock.elapsedRealtime()
+                    + Math.max(0, scheduledReload.getDelay(TimeUnit.MILLISECONDS));
+                RotationScheduler.cancel(scheduledReload);
+                scheduledReload = null;
+            }
+        }
+    }
+
+    /**
+     * Resume reloading ADs suspended by {@link #pauseReload()}. The next reload happens when the interrupted cycle
+     * would have ended, or right away if that time has passed. Missed cycles are not replayed. If no reload has
+     * been scheduled yet, the first SHOW_AD response may have been dropped while invisible, request one now.
+     */
+    protected void resumeReload() {
+        boolean reloadNow = false;
+        synchronized (scheduleLock) {
+            if (!reloadPaused) {
+                reloadNow = scheduledReload == null && !detached;
+            } else {
+                reloadPaused = false;
+                if (scheduledReload != null) {
+                    RotationScheduler.cancel(scheduledReload);
+                }
+                scheduledReload = RotationScheduler.scheduleWithFixedDelay(
+                    new ReloadAdRunnable(getActivity(), adUnitContext),
+                    Math.max(0, pausedReloadTime - SystemClock.elapsedRealtime()),
+                    cycleTime);
+            }
+        }
+        if (reloadNow) {
+            // a request that is still pending in the service is merged with this one.
+            submitReloadAdRequest();
+        }
+    }
+
+    /**
+     * Stop reloading ADs.
+     */
+    protected void cancelReload() {
+        synchronized (scheduleLock) {
+            if (scheduledReload != null) {
+                RotationScheduler.cancel(scheduledReload);
+                scheduledReload = null;
+            }
+            reloadPaused = false;
+        }
+    }
+
+    /**
+     *  Remove old ad views and push the new one. A view of the next cycle that has been loaded before the current
+     *  cycle ends is held off-screen until then.
      *  @param subView the adview to push.
      */
     protected void pushSubView(ViewGroup subView) {
+        long delay = swapTime - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            Log.d(LocadzUtils.LOG_TAG, String.format("Holding prefetched subview for %d ms", delay));
+            if (prefetchedAdapter != null && prefetchedAdapter != currentAdapter && prefetchedAdapter != shownAdapter) {
+                // the replaced prefetch never reaches the screen.
+                prefetchedAdapter.willDestroy();
+            }
+            prefetchedView = subView;
+            prefetchedAdapter = currentAdapter;
+            prefetchedRation = currentRation;
+            prefetchLoadTime = SystemClock.uptimeMillis();
+            removeCallbacks(swapAdRunnable);
+            postDelayed(swapAdRunnable, delay);
+            return;
+        }
+        if (prefetchedView != null) {
+            // a newer view supersedes the prefetched one that has not been swapped in yet.
+            removeCallbacks(swapAdRunnable);
+            if (prefetchedAdapter != null && prefetchedAdapter != currentAdapter && prefetchedAdapter != shownAdapter) {
+                prefetchedAdapter.willDestroy();
+            }
+            prefetchedView = null;
+            prefetchedAdapter = null;
+        }
+        showSubView(subView, currentAdapter, currentRation);
+    }
+
+    /**
+     * Show the prefetched view, if any.
+     */
+    void swapPrefetchedAd() {
+        ViewGroup subView = prefetchedView;
+        if (subView != null) {
+            prefetchedView = null;
+            showSubView(subView, prefetchedAdapter, prefetchedRation);
+            prefetchedAdapter = null;
+        }
+    }
+
+    /**
+     *  Remove old ad views and show the new one right away.
+     *  @param subView the adview to show.
+     *  @param adapter the adapter that loaded the view.
+     *  @param ration  the ration of the adapter.
+     */
+    private void showSubView(ViewGroup subView, AdWhirlAdapter adapter, Ration ration) {
+        lastSwapTime = SystemClock.uptimeMillis();
+        if (adapter != shownAdapter) {
+            // Tell the previous adapter that its view will be destroyed, the replaced one gets its turn next time.
+            if (previousAdapter != null && previousAdapter != adapter) {
+                previousAdapter.willDestroy();
+            }
+            previousAdapter = shownAdapter;
+        }
+        shownAdapter = adapter;
+        shownRation = ration;
         this.removeAllViews();
 
         RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(
@@ -343,43 +667,139 @@ public class AdUnitLayout extends RelativeLayout {
         this.addView(subView, layoutParams);
 
         Log.d(LocadzUtils.LOG_TAG, "Added subview");
-        countImpression();
+        if (ration != null) {
+            AdEventTracker.getInstance(getContext()).record(AdEventTracker.TYPE_IMPRESSION, adUnitId, ration);
+        }
     }
 
-    private void countImpression() {}
+    /**
+     * Count a click on the ad of a ration. Called by the adapters when their networks report a click.
+     *
+     * @param ration    the ration of the clicked ad.
+     */
+    public void countClick(Ration ration) {
+        AdEventTracker.getInstance(getContext()).record(AdEventTracker.TYPE_CLICK, adUnitId, ration);
+    }
 
     /**
+     * Start a new cycle with the ration selected by {@link AdUnitAllocationService}.
      *
-     * @param ration
-     * @param extra
+     * @param ration    the selected ration.
+     * @param extra     the extra of the allocation.
+     * @param candidates all rations of the allocation, used for rollovers in this cycle.
      */
-    private void rotateAd(Ration ration, Extra extra) {
+    void rotateAd(Ration ration, Extra extra, List<Ration> candidates) {
         if (isActivityVisible()) {
+            // while an ad is showing, the new one is a prefetch and replaces it when the current cycle ends.
+            synchronized (scheduleLock) {
+                swapTime = getChildCount() > 0 ? lastSwapTime + cycleTime : 0;
+            }
+            rollovers = candidates == null ? null : new RolloverChain(candidates);
+
+            // a view loaded by another layout of the ad unit saves a network request.
+            AdViewPool.Entry pooled = AdViewPool.getInstance(adUnitId).take(getContext(), SystemClock.uptimeMillis());
+            if (pooled != null) {
+                showPooledAd(pooled, extra);
+            } else {
+                showAd(ration, extra);
+            }
+        }
+    }
+
+    /**
+     * Adopt a view from the {@link AdViewPool} together with its adapter.
+     *
+     * @param pooled    the pooled view.
+     * @param extra     the extra of the allocation.
+     */
+    private void showPooledAd(AdViewPool.Entry pooled, Extra extra) {
+        ViewGroup subView = pooled.getView();
+
+        releaseCurrentAdapter();
+        this.currentAdapter = pooled.getAdapter();
+        if (this.currentAdapter != null) {
+            // the callbacks of the adapter have to reach this layout rather than the one that loaded the view.
+            this.currentAdapter.attachTo(this);
+        }
+        this.currentRation = pooled.getRation();
+        this.currentExtra = extra;
+
+        scheduleReload(getCycleTime(extra));
+        pushSubView(subView);
+    }
+
+    /**
+     * Skip the network of the failed ration and show the next ration of the current cycle.
+     *
+     * @param failedRation  the ration of the adapter that failed to fetch an AD.
+     */
+    void rolloverAd(Ration failedRation) {
+        if (failedRation == null || !failedRation.equals(currentRation)) {
+            // a late failure of an adapter that has been replaced already.
+            return;
+        }
+        if (rollovers == null) {
+            submitReloadAdRequest();
+            return;
+        }
+
+        rollovers.markFailed(failedRation);
+        Ration next = rollovers.next();
+        if (next == null) {
+            Log.i(LocadzUtils.LOG_TAG, "All networks failed in this cycle, waiting for the next cycle.");
+            return;
+        }
+        showAd(next, currentExtra);
+    }
+
+    /**
+     * Replace the current adapter with the adapter of the ration.
+     *
+     * @param ration    the ration to show.
+     * @param extra     the extra of the allocation.
+     */
+    private void showAd(Ration ration, Extra extra) {
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(getContext());
+        if (isActivityVisible() && !monitor.isConnected()) {
+            // keep the current ad, the adapter request would fail anyway.
+            monitor.skipped(adUnitId);
+            scheduleReload(getCycleTime(extra));
+            return;
+        }
+        if (isActivityVisible()) {
+            this.currentRation = ration;
+            this.currentExtra = extra;
             try {
-                // Tell the previous adapter that its view will be destroyed.
-                if (this.previousAdapter != null) {
-                    this.previousAdapter.willDestroy();
-                }
-                this.previousAdapter = this.currentAdapter;
-                this.currentAdapter = AdWhirlAdapter.handle(this, ration, extra);
+                AdWhirlAdapter adapter = AdWhirlAdapter.handle(this, ration, extra);
+                releaseCurrentAdapter();
+                this.currentAdapter = adapter;
 
-                // if the cycle time has changed, reschedule the reloading ads Runnable.
-                if (extra.getCycleTime() != cycleTime) {
-                    scheduleReload(extra.getCycleTime());
-                }
+                // start the reloading ads Runnable, or reschedule it if the cycle time has changed.
+                scheduleReload(getCycleTime(extra));
             } catch (Throwable t) {
                 Log.w(LocadzUtils.LOG_TAG, "Caught an exception in adapter:", t);
-                submitReloadAdRequest();
+                rolloverAd(ration);
                 return;
             }
         }
     }
 
     /**
-     * Broadcast receiver that receives SHOW_AD intent and replace the existing adaptor with the
-     * new one specified in the intent.
+     * Destroy the adapter of the previous request unless its view is on the screen or held as the prefetched ad,
+     * these are destroyed when their views get replaced.
+     */
+    private void releaseCurrentAdapter() {
+        if (currentAdapter != null && currentAdapter != shownAdapter && currentAdapter != prefetchedAdapter) {
+            currentAdapter.willDestroy();
+        }
+        currentAdapter = null;
+    }
+
+    /**
+     * Listener that receives SHOW_AD response of the adunit and replace the existing adaptor with the
+     * new one specified in the response.
      */
-    private static final class ShowAdIntentReceiver extends BroadcastReceiver {
+    private static final class ShowAdIntentReceiver implements ShowAdDispatcher.ShowAdListener {
 
         private final String adUnitId;
 
@@ -391,35 +811,28 @@ public class AdUnitLayout extends RelativeLayout {
         }
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-
-            // verify the Intent is for this adunit.
-            if (IntentConstants.ACTION_SHOW_AD.equals(intent.getAction())) {
-                String targetAdUnitId = intent.getStringExtra(IntentConstants.EXTRA_ADUNIT_ID);
-
-                if (adUnitId.equals(targetAdUnitId)) {
-                    AdUnitLayout locadzLayout = locadzLayoutWeakReference.get();
-
-                    // if the parent AdUnitLayout does not exist anymore, de-register this broadcast receiver
-                    // from the system.
-                    if (locadzLayout == null) {
-                        context.unregisterReceiver(this);
-                    } else {
-                        Ration ration = (Ration)intent.getSerializableExtra(IntentConstants.EXTRA_RATION);
-                        Extra extra = (Extra)intent.getSerializableExtra(IntentConstants.EXTRA_EXTRA);
-
-                        if (locadzLayout.isActivityVisible()) {
-                            // onReceive() is invoked in the Main thread, we need to
-                            // replace the ad in the background thread.
-                            locadzLayout.getHandler().post(new RotateAdRunnable(locadzLayout, ration, extra));
-                        }
-                    }
+        public void onShowAd(Intent intent) {
+            AdUnitLayout locadzLayout = locadzLayoutWeakReference.get();
+
+            // if the parent AdUnitLayout does not exist anymore, de-register this listener.
+            if (locadzLayout == null) {
+                ShowAdDispatcher.unregister(adUnitId, this);
+            } else {
+                Ration ration = (Ration)intent.getSerializableExtra(IntentConstants.EXTRA_RATION);
+                Extra extra = (Extra)intent.getSerializableExtra(IntentConstants.EXTRA_EXTRA);
+                @SuppressWarnings("unchecked")
+                List<Ration> rollovers = (List<Ration>)intent.getSerializableExtra(IntentConstants.EXTRA_ROLLOVERS);
+
+                Handler handler = locadzLayout.getHandler();
+                if (locadzLayout.isActivityVisible() && handler != null) {
+                    // onShowAd() is invoked in the worker thread of the service, we need to
+                    // replace the ad in the main thread.
+                    handler.post(new RotateAdRunnable(locadzLayout, ration, extra, rollovers));
                 }
             }
         }
     }
 
-
     /**
      * Runnable running on the Main Thread that rotates adapters.
      */
@@ -431,9 +844,35 @@ public class AdUnitLayout extends RelativeLayout {
 
         private final Extra extra;
 
-        public RotateAdRunnable(AdUnitLayout layout, Ration ration, Extra extra) {
+        private final List<Ration> rollovers;
+
+        public RotateAdRunnable(AdUnitLayout layout, Ration ration, Extra extra, List<Ration> rollovers) {
             this.ration = ration;
             this.extra = extra;
+            this.rollovers = rollovers;
+            locadzLayoutWeakReference = new WeakReference<AdUnitLayout>(layout);
+        }
+
+        @Override
+        public void run() {
+            AdUnitLayout locadzLayout = locadzLayoutWeakReference.get();
+            if (locadzLayout != null) {
+                locadzLayout.rotateAd(ration, extra, rollovers);
+            }
+        }
+    }
+
+    /**
+     * Runnable running on the Main Thread that rolls over to the next network of the current cycle.
+     */
+    private static final class RolloverRunnable implements Runnable {
+
+        private final WeakReference<AdUnitLayout> locadzLayoutWeakReference;
+
+        private final Ration failedRation;
+
+        public RolloverRunnable(AdUnitLayout layout, Ration failedRation) {
+            this.failedRation = failedRation;
             locadzLayoutWeakReference = new WeakReference<AdUnitLayout>(layout);
         }
 
@@ -441,7 +880,7 @@ public class AdUnitLayout extends RelativeLayout {
         public void run() {
             AdUnitLayout locadzLayout = locadzLayoutWeakReference.get();
             if (locadzLayout != null) {
-                locadzLayout.rotateAd(ration, extra);
+                locadzLayout.rolloverAd(failedRation);
             }
         }
     }
@@ -469,6 +908,49 @@ public class AdUnitLayout extends RelativeLayout {
         }
     }
 
+    /**
+     * Runnable running on the Main Thread that shows the prefetched AdView when the current cycle ends.
+     */
+    private static final class SwapAdRunnable implements Runnable {
+
+        private final WeakReference<AdUnitLayout> locadzLayoutWeakReference;
+
+        public SwapAdRunnable(AdUnitLayout layout) {
+            locadzLayoutWeakReference = new WeakReference<AdUnitLayout>(layout);
+        }
+
+        @Override
+        public void run() {
+            AdUnitLayout locadzLayout = locadzLayoutWeakReference.get();
+            if (locadzLayout != null) {
+                locadzLayout.swapPrefetchedAd();
+            }
+        }
+    }
+
+    /**
+     * Listener that refreshes the ad unit of the layout once the network returns, if its requests have been
+     * skipped while offline. A single layout refreshes an ad unit, the response reaches all its layouts.
+     */
+    private static final class ReconnectReceiver implements ConnectivityMonitor.ReconnectListener {
+
+        private final WeakReference<AdUnitLayout> locadzLayoutWeakReference;
+
+        public ReconnectReceiver(AdUnitLayout layout) {
+            locadzLayoutWeakReference = new WeakReference<AdUnitLayout>(layout);
+        }
+
+        @Override
+        public void onReconnect(ConnectivityMonitor monitor) {
+            AdUnitLayout locadzLayout = locadzLayoutWeakReference.get();
+            if (locadzLayout == null) {
+                monitor.removeReconnectListener(this);
+            } else if (locadzLayout.isActivityVisible() && monitor.takeSkipped(locadzLayout.adUnitId)) {
+                locadzLayout.submitReloadAdRequest();
+            }
+        }
+    }
+
     /**
      * Runnable running by the scheduler that sends VIEW_AD intends to ConfigService
      * periodically.
@@ -488,6 +970,11 @@ public class AdUnitLayout extends RelativeLayout {
         public void run() {
             Context context = contextWeakReference.get();
             if (context != null) {
+                ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(context);
+                if (!monitor.isConnected()) {
+                    monitor.skipped(adUnitContext.getAdUnitId());
+                    return;
+                }
                 Intent intent = AdUnitAllocationService.createIntent(context, adUnitContext);
                 context.startService(intent);
             }
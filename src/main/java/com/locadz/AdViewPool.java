@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.ViewGroup;
+import com.adwhirl.adapters.AdWhirlAdapter;
+import com.locadz.model.Ration;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Pool of loaded ad views of an ad unit, shared by all {@link AdUnitLayout}s of the ad unit.<p/>
+ *
+ * When a layout is detached, e.g. a row of a list scrolling off the screen, its prefetched view, loaded but never
+ * shown, is offered to the pool. A layout of the same ad unit in the same Activity that needs an ad takes one
+ * from the pool instead of running its own adapter request. A view stays in the pool until the TTL of its network
+ * expires, creatives are not valid forever. The layout that loaded a view keeps owning its adapter until another
+ * layout takes it or the pool drops it; the adapter of a dropped view is destroyed by the pool.<p/>
+ *
+ * The views of an Activity are dropped when its last layout of the ad unit is detached, e.g. when the Activity
+ * is destroyed by a configuration change, and the views of finished Activities whenever a view is offered, so
+ * that the pool never keeps an Activity alive.
+ */
+public final class AdViewPool {
+
+    /** the default maximum number of views per ad unit. */
+    public static final int DEFAULT_CAPACITY = 3;
+
+    /** the default time a loaded view stays valid. */
+    public static final long DEFAULT_TTL = 60 * 1000; // 1 minute.
+
+    private static final Map<String, AdViewPool> POOLS = new HashMap<String, AdViewPool>();
+
+    /** TTL in ms by network id, guarded by itself. */
+    private static final Map<Integer, Long> NETWORK_TTLS = new HashMap<Integer, Long>();
+
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    /** A pooled view. */
+    static final class Entry {
+
+        private final ViewGroup view;
+
+        private final Ration ration;
+
+        private final AdWhirlAdapter adapter;
+
+        /** in the {@link android.os.SystemClock#uptimeMillis()} time base. */
+        private final long expiryTime;
+
+        private Entry(ViewGroup view, Ration ration, AdWhirlAdapter adapter, long expiryTime) {
+            this.view = view;
+            this.ration = ration;
+            this.adapter = adapter;
+            this.expiryTime = expiryTime;
+        }
+
+        ViewGroup getView() {
+            return view;
+        }
+
+        Ration getRation() {
+            return ration;
+        }
+
+        AdWhirlAdapter getAdapter() {
+            return adapter;
+        }
+    }
+
+    /** oldest first. */
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+    /** number of attached layouts of the ad unit by context. */
+    private final Map<Context, Integer> attachedLayouts = new HashMap<Context, Integer>();
+
+    /** Hide constructor. */
+    private AdViewPool() {
+    }
+
+    /**
+     * @param adUnitId  the id of the ad unit.
+     * @return the pool of the ad unit.
+     */
+    static AdViewPool getInstance(String adUnitId) {
+        synchronized (POOLS) {
+            AdViewPool ret = POOLS.get(adUnitId);
+            if (ret == null) {
+                ret = new AdViewPool();
+                POOLS.put(adUnitId, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Sets the maximum number of loaded views kept per ad unit, 0 disables pooling.
+     *
+     * @param newCapacity   the maximum number of views.
+     */
+    public static void setCapacity(int newCapacity) {
+        if (newCapacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative.");
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Sets how long a loaded view of a network may be shown, see the terms of the network.
+     *
+     * @param networkId the id of the network, one of the <code>AdWhirlUtil.NETWORK_TYPE_*</code> constants.
+     * @param ttl       the time to live in ms.
+     */
+    public static void setNetworkTtl(int networkId, long ttl) {
+        synchronized (NETWORK_TTLS) {
+            NETWORK_TTLS.put(networkId, ttl);
+        }
+    }
+
+    /**
+     * @param networkId the id of the network.
+     * @return the time to live of the views of the network in ms.
+     */
+    static long getNetworkTtl(int networkId) {
+        synchronized (NETWORK_TTLS) {
+            Long ret = NETWORK_TTLS.get(networkId);
+            return ret == null ? DEFAULT_TTL : ret;
+        }
+    }
+
+    /**
+     * Offer a loaded view, the oldest view is dropped when the pool is full. The pool takes over the adapter, it
+     * is destroyed unless the view is withdrawn or taken.
+     *
+     * @param view      the view.
+     * @param ration    the ration the view was loaded for.
+     * @param adapter   the adapter that loaded the view.
+     * @param loadTime  when the view was loaded, in the uptimeMillis time base.
+     * @param now       the current time in the uptimeMillis time base.
+     */
+    synchronized void offer(ViewGroup view, Ration ration, AdWhirlAdapter adapter, long loadTime, long now) {
+        purge(now);
+        if (ration == null) {
+            return;
+        }
+        Entry offered = new Entry(view, ration, adapter, loadTime + getNetworkTtl(ration.getNetworkId()));
+        if (capacity == 0 || !isValid(offered, now)) {
+            drop(offered);
+            return;
+        }
+        entries.add(offered);
+        while (entries.size() > capacity) {
+            drop(entries.removeFirst());
+        }
+    }
+
+    /**
+     * Count a layout of the ad unit attached to a window.
+     *
+     * @param context   the context of the layout.
+     */
+    synchronized void attach(Context context) {
+        Integer count = attachedLayouts.get(context);
+        attachedLayouts.put(context, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Count a layout of the ad unit detached from its window. When the last layout of the context is gone, no
+     * layout can take the views of the context anymore, and they are dropped.
+     *
+     * @param context   the context of the layout.
+     */
+    synchronized void detach(Context context) {
+        Integer count = attachedLayouts.get(context);
+        if (count != null && count > 1) {
+            attachedLayouts.put(context, count - 1);
+            return;
+        }
+        attachedLayouts.remove(context);
+
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.view.getContext() == context) {
+                it.remove();
+                drop(entry);
+            }
+        }
+    }
+
+    /**
+     * Drop the expired views and the views of finished Activities.
+     *
+     * @param now       the current time in the uptimeMillis time base.
+     */
+    synchronized void purge(long now) {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!isValid(entry, now)) {
+                it.remove();
+                drop(entry);
+            }
+        }
+    }
+
+    /**
+     * Take the newest valid view that belongs to the context. Expired views and views of finished Activities are
+     * dropped on the way.
+     *
+     * @param context   the context of the taking layout, views can not move between Activities.
+     * @param now       the current time in the uptimeMillis time base.
+     * @return the view or null.
+     */
+    synchronized Entry take(Context context, long now) {
+        Entry ret = null;
+        // newest first, LinkedList.descendingIterator() is not available on all supported platforms.
+        ListIterator<Entry> it = entries.listIterator(entries.size());
+        while (it.hasPrevious()) {
+            Entry entry = it.previous();
+            if (!isValid(entry, now)) {
+                it.remove();
+                drop(entry);
+            } else if (ret == null && entry.view.getContext() == context) {
+                it.remove();
+                ret = entry;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Withdraw a view offered before.
+     *
+     * @param view  the view.
+     * @return true if the view was still in the pool, false if it has been taken, expired or evicted.
+     */
+    synchronized boolean withdraw(ViewGroup view) {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            if (it.next().view == view) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param entry the pooled view.
+     * @param now   the current time in the uptimeMillis time base.
+     * @return false if the view has expired or its Activity is finishing.
+     */
+    private static boolean isValid(Entry entry, long now) {
+        Context owner = entry.view.getContext();
+        return entry.expiryTime > now && !(owner instanceof Activity && ((Activity) owner).isFinishing());
+    }
+
+    /**
+     * Tell the adapter of a dropped view that its view will be destroyed.
+     *
+     * @param entry the dropped view.
+     */
+    private static void drop(Entry entry) {
+        if (entry.adapter != null) {
+            entry.adapter.willDestroy();
+        }
+    }
+}
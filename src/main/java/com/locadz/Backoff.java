@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for the retries of a failing remote call.<p/>
+ *
+ * Each consecutive failure doubles the delay before the next attempt, up to a maximum. The actual delay is
+ * drawn at random from the upper half of the current delay, so that clients that failed together, e.g. during an
+ * outage of the backend, do not retry together. A success resets the backoff.
+ */
+final class Backoff {
+
+    private static final Random RANDOM = new Random();
+
+    /** the delay doubles with each failure up to this many failures. */
+    private static final int MAX_DOUBLINGS = 20;
+
+    private final long minDelay;
+
+    private final long maxDelay;
+
+    private int failures;
+
+    /** in the time base of the callers. */
+    private long retryTime;
+
+    /**
+     * @param minDelay  the delay after the first failure in ms.
+     * @param maxDelay  the maximum delay in ms.
+     */
+    Backoff(long minDelay, long maxDelay) {
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @param now   the current time.
+     * @return true if an attempt may be made now.
+     */
+    synchronized boolean isAllowed(long now) {
+        return now >= retryTime;
+    }
+
+    /**
+     * @return the number of consecutive failures.
+     */
+    synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the earliest time of the next attempt.
+     */
+    synchronized long getRetryTime() {
+        return retryTime;
+    }
+
+    /**
+     * Record a failed attempt.
+     *
+     * @param now   the current time.
+     * @return the delay before the next attempt in ms.
+     */
+    synchronized long failure(long now) {
+        long delay = Math.min(maxDelay, minDelay << Math.min(failures, MAX_DOUBLINGS));
+        failures++;
+        long halfDelay = delay / 2;
+        delay = halfDelay + (long) (RANDOM.nextDouble() * (delay - halfDelay));
+        retryTime = now + delay;
+        return delay;
+    }
+
+    /**
+     * Record a successful attempt.
+     */
+    synchronized void success() {
+        failures = 0;
+        retryTime = 0;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.locadz.LocadzUtils.LOG_TAG;
+
+/**
+ * Tracks the network state of the device from the {@link ConnectivityManager#CONNECTIVITY_ACTION} broadcasts.<p/>
+ *
+ * While the device is offline, the SDK does not fetch allocations nor request ads, a request would only wait for
+ * the connect timeout. The ad units whose requests have been skipped are recorded, and when the network returns,
+ * the {@link ReconnectListener}s are notified once, so that a single refresh per ad unit makes up for the skipped
+ * requests.
+ */
+final class ConnectivityMonitor {
+
+    /** the network type while offline, see {@link #getNetworkType()}. */
+    static final int TYPE_NONE = -1;
+
+    /** connectivity broadcasts come in bursts, e.g. mobile data going down while Wi-Fi comes up. */
+    private static final long RECONNECT_DELAY = 2 * 1000; // 2 seconds.
+
+    /** Listener of the return of the network. */
+    interface ReconnectListener {
+
+        /**
+         * Invoked on the main thread when the device is back online.
+         *
+         * @param monitor   the monitor.
+         */
+        void onReconnect(ConnectivityMonitor monitor);
+    }
+
+    /** the monitor of the application. */
+    private static ConnectivityMonitor instance;
+
+    private final ConnectivityManager connectivityManager;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean connected = true;
+
+    private volatile int networkType = TYPE_NONE;
+
+    private volatile int networkSubtype;
+
+    private final List<ReconnectListener> listeners = new CopyOnWriteArrayList<ReconnectListener>();
+
+    /** ids of the ad units whose requests have been skipped while offline. */
+    private final Set<String> skippedAdUnits = Collections.synchronizedSet(new HashSet<String>());
+
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            notifyReconnect();
+        }
+    };
+
+    /**
+     * @param context   the application context.
+     */
+    private ConnectivityMonitor(Context context) {
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        update();
+
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context receiverContext, Intent intent) {
+                boolean wasConnected = connected;
+                update();
+                if (!wasConnected && connected) {
+                    handler.removeCallbacks(reconnectTask);
+                    handler.postDelayed(reconnectTask, RECONNECT_DELAY);
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * @param context   the context.
+     * @return the monitor of the application.
+     */
+    static synchronized ConnectivityMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConnectivityMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Notify the listeners if the device is online.
+     */
+    void notifyReconnect() {
+        if (connected) {
+            Log.d(LOG_TAG, "Network is back, refreshing skipped ad units " + skippedAdUnits);
+            for (ReconnectListener listener : listeners) {
+                listener.onReconnect(this);
+            }
+        }
+    }
+
+    /**
+     * Override the state of the network until the next connectivity broadcast, for tests.
+     *
+     * @param newConnected  true if the device is online.
+     */
+    void setConnected(boolean newConnected) {
+        connected = newConnected;
+        networkType = newConnected ? ConnectivityManager.TYPE_WIFI : TYPE_NONE;
+        networkSubtype = 0;
+    }
+
+    /**
+     * Read the state of the active network.
+     */
+    private void update() {
+        NetworkInfo info;
+        try {
+            info = connectivityManager.getActiveNetworkInfo();
+        } catch (SecurityException e) {
+            // the application does not hold ACCESS_NETWORK_STATE, assume it is online on a mobile network.
+            connected = true;
+            networkType = ConnectivityManager.TYPE_MOBILE;
+            return;
+        }
+
+        connected = info != null && info.isConnected();
+        networkType = connected ? info.getType() : TYPE_NONE;
+        networkSubtype = connected ? info.getSubtype() : 0;
+        Log.d(LOG_TAG, String.format("Network state changed, connected: %b, type: %d", connected, networkType));
+    }
+
+    /**
+     * @return true if the device is online.
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return the type of the active network, one of the <code>ConnectivityManager.TYPE_*</code> constants, or
+     *         {@link #TYPE_NONE} while offline.
+     */
+    int getNetworkType() {
+        return networkType;
+    }
+
+    /**
+     * @return the subtype of the active network, e.g. one of the <code>TelephonyManager.NETWORK_TYPE_*</code>
+     *         constants on a mobile network.
+     */
+    int getNetworkSubtype() {
+        return networkSubtype;
+    }
+
+    /**
+     * @return true if the active network is Wi-Fi.
+     */
+    boolean isWifi() {
+        return networkType == ConnectivityManager.TYPE_WIFI;
+    }
+
+    /**
+     * Record a request of an ad unit that has been skipped because the device is offline.
+     *
+     * @param adUnitId  the id of the ad unit.
+     */
+    void skipped(String adUnitId) {
+        skippedAdUnits.add(adUnitId);
+    }
+
+    /**
+     * Claim the refresh of an ad unit after the network has returned. Only the first caller per ad unit succeeds.
+     *
+     * @param adUnitId  the id of the ad unit.
+     * @return true if requests of the ad unit have been skipped and the caller has to refresh it.
+     */
+    boolean takeSkipped(String adUnitId) {
+        return skippedAdUnits.remove(adUnitId);
+    }
+
+    /**
+     * @param listener  the listener to notify when the network returns.
+     */
+    void addReconnectListener(ReconnectListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener  the listener to remove.
+     */
+    void removeReconnectListener(ReconnectListener listener) {
+        listeners.remove(listener);
+    }
+}
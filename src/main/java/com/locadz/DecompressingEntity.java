@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Entity wrapper that transparently decompresses a gzip or deflate encoded response body while it is streamed,
+ * and records the number of bytes transferred and the number of bytes after decompression.
+ */
+final class DecompressingEntity extends HttpEntityWrapper {
+
+    static final String ENCODING_GZIP = "gzip";
+
+    static final String ENCODING_DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /** total bytes received on the wire. */
+    private static final AtomicLong COMPRESSED_BYTES = new AtomicLong();
+
+    /** total bytes after decompression. */
+    private static final AtomicLong UNCOMPRESSED_BYTES = new AtomicLong();
+
+    private final String encoding;
+
+    /**
+     * @param entity    the encoded entity.
+     */
+    DecompressingEntity(HttpEntity entity) {
+        super(entity);
+        Header contentEncoding = entity.getContentEncoding();
+        this.encoding = contentEncoding == null ? null : contentEncoding.getValue().trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * @param encoding  the value of a Content-Encoding header.
+     * @return true if this entity can decode the encoding.
+     */
+    static boolean isSupported(String encoding) {
+        return ENCODING_GZIP.equalsIgnoreCase(encoding.trim()) || ENCODING_DEFLATE.equalsIgnoreCase(encoding.trim());
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        InputStream wire = new CountingInputStream(wrappedEntity.getContent(), COMPRESSED_BYTES);
+        InputStream decoded;
+        if (ENCODING_GZIP.equals(encoding)) {
+            decoded = new GZIPInputStream(wire, BUFFER_SIZE);
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            decoded = new InflaterInputStream(wire);
+        } else {
+            decoded = wire;
+        }
+        return new CountingInputStream(decoded, UNCOMPRESSED_BYTES);
+    }
+
+    /** {@inheritDoc} The decoded length is unknown until the body has been read. */
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /** {@inheritDoc} The content is decoded already. */
+    @Override
+    public Header getContentEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        InputStream in = getContent();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                outstream.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the total number of response bytes received on the wire through this class.
+     */
+    static long getCompressedBytes() {
+        return COMPRESSED_BYTES.get();
+    }
+
+    /**
+     * @return the total number of response bytes after decompression through this class.
+     */
+    static long getUncompressedBytes() {
+        return UNCOMPRESSED_BYTES.get();
+    }
+
+    /** Input stream that adds the number of bytes read to a counter. */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong counter;
+
+        private CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ret = super.read();
+            if (ret != -1) {
+                counter.incrementAndGet();
+            }
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int ret = super.read(buffer, offset, length);
+            if (ret > 0) {
+                counter.addAndGet(ret);
+            }
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long ret = super.skip(n);
+            counter.addAndGet(ret);
+            return ret;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.content.SharedPreferences;
 import android.telephony.TelephonyManager;
 import android.provider.Settings.Secure;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.UUID;
 
@@ -35,6 +36,9 @@ public class DeviceUuidFactory {
 
     protected static UUID uuid;
 
+    /** writes the device id in the background, the constructor runs on the main thread. */
+    private static WriteBehindQueue<String> writes;
+
 
     public DeviceUuidFactory(Context context) {
         if (uuid == null) {
@@ -65,8 +69,19 @@ public class DeviceUuidFactory {
                             throw new RuntimeException(e);
                         }
 
-                        // Write the value out to the prefs file
-                        prefs.edit().putString(PREFS_DEVICE_ID, uuid.toString()).commit();
+                        // Write the value out to the prefs file, SharedPreferences.apply() is not available on
+                        // all supported platforms, commit() on the housekeeping thread instead.
+                        if (writes == null) {
+                            writes = new WriteBehindQueue<String>(new WriteBehindQueue.Sink<String>() {
+                                @Override
+                                public void write(String key, String value) throws IOException {
+                                    if (!prefs.edit().putString(key, value).commit()) {
+                                        throw new IOException("Failed to commit " + PREFS_FILE);
+                                    }
+                                }
+                            }, RotationScheduler.getHousekeepingExecutor());
+                        }
+                        writes.put(PREFS_DEVICE_ID, uuid.toString());
 
                     }
 
@@ -74,4 +89,11 @@ public class DeviceUuidFactory {
             }
         }
     }
+
+    /**
+     * @return the id of the device, stable across restarts of the application.
+     */
+    public UUID getDeviceUuid() {
+        return uuid;
+    }
 }
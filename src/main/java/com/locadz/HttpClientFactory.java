@@ -16,50 +16,140 @@
 
 package com.locadz;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
 
-import java.lang.ref.SoftReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
 /**
- *  Factory class that returns a shared http client instance.
+ *  Factory class that returns a shared http client instance.<p/>
+ *
+ *  The client pools its connections, so that config fetches reuse warm keep-alive connections instead of doing a
+ *  fresh TCP handshake every time. Idle connections are evicted periodically. Response bodies are requested with
+ *  gzip/deflate transport compression and decompressed transparently by {@link DecompressingEntity}.
  */
 public class HttpClientFactory {
 
-    /** soft reference to the current client. */
-    private static SoftReference<HttpClient> instance = new SoftReference<HttpClient>(null);
+    private static final int CONNECT_TIMEOUT = 10 * 1000; // 10 seconds.
+
+    private static final int SOCKET_TIMEOUT = 20 * 1000; // 20 seconds.
+
+    /** how long a request waits for a pooled connection. */
+    private static final int POOL_TIMEOUT = 10 * 1000; // 10 seconds.
+
+    /**
+     * all requests go to the same host, every concurrent fetch and the upload of the ad events get a connection
+     * without waiting for the pool.
+     */
+    private static final int MAX_CONNECTIONS_PER_ROUTE = AdUnitAllocationService.MAX_CONCURRENT_FETCHES + 1;
+
+    private static final int MAX_TOTAL_CONNECTIONS = MAX_CONNECTIONS_PER_ROUTE;
 
-    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final int SOCKET_BUFFER_SIZE = 8192;
+
+    /** connections idle for longer than this are closed, servers drop them anyway. */
+    private static final long IDLE_CONNECTION_TIMEOUT = 30 * 1000; // 30 seconds.
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String ACCEPT_ENCODING =
+        DecompressingEntity.ENCODING_GZIP + ", " + DecompressingEntity.ENCODING_DEFLATE;
+
+    /** Hide constructor. */
+    private HttpClientFactory() {
+    }
 
     /**
-     * Get a client instance. <br/>
-     * Note: You should not assign the instance to a class variable.
+     * Get the shared client instance. The instance is created on first use and never changes afterwards.
      * @return a HttpClient instance.
      */
     public static final HttpClient getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
 
-        ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
+    /**
+     * Create a client with a thread safe connection pool.
+     * @return a new HttpClient instance.
+     */
+    private static HttpClient createHttpClient() {
+        HttpParams params = new BasicHttpParams();
+
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, "UTF-8");
+
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+        HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+        ConnManagerParams.setTimeout(params, POOL_TIMEOUT);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
 
-        try {
-            readLock.lock();
-            HttpClient httpClient = instance.get();
-            if (httpClient == null) {
-                readLock.unlock();
-                lock.writeLock().lock();
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        final ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+
+        RotationScheduler.scheduleHousekeeping(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }, IDLE_CONNECTION_TIMEOUT, IDLE_CONNECTION_TIMEOUT);
 
-                httpClient = instance.get();
-                if (httpClient == null) {
-                    httpClient = new DefaultHttpClient();
-                    instance = new SoftReference<HttpClient>(httpClient);
+        DefaultHttpClient ret = new DefaultHttpClient(connectionManager, params);
+
+        // ask for a compressed body and decompress it transparently.
+        ret.addRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                if (!request.containsHeader(HEADER_ACCEPT_ENCODING)) {
+                    request.addHeader(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+                }
+            }
+        });
+        ret.addResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) {
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    Header contentEncoding = entity.getContentEncoding();
+                    if (contentEncoding != null && DecompressingEntity.isSupported(contentEncoding.getValue())) {
+                        response.setEntity(new DecompressingEntity(entity));
+                    }
                 }
-                readLock.lock();
-                lock.writeLock().unlock();
             }
-            return httpClient;
+        });
+
+        return ret;
+    }
+
+    /** Lazy, lock-free initialization of the shared instance. */
+    private static final class InstanceHolder {
 
-        } finally {
-            readLock.unlock();
-        }
+        private static final HttpClient INSTANCE = createHttpClient();
     }
 }
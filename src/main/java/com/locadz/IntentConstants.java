@@ -32,6 +32,9 @@ public final class IntentConstants {
     /** field name for Ration in a Intent. */
     public static final String EXTRA_RATION = "RATION";
 
+    /** field name for the rollover candidates (all rations of the allocation) in a Intent. */
+    public static final String EXTRA_ROLLOVERS = "ROLLOVERS";
+
     /** field name for Extra in a Intent. */
     public static final String EXTRA_EXTRA = "EXTRA";
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.locadz.LocadzUtils.LOG_TAG;
+
+/**
+ * Runs the tasks of the same key one after another in submission order, and the tasks of different keys in
+ * parallel on the threads of an underlying executor.<p/>
+ *
+ * A key holds at most one thread of the underlying executor at a time, so a slow task only delays the tasks of
+ * its own key.
+ */
+final class KeyedSerialExecutor {
+
+    /** pending tasks by key, a key is present while one of its tasks is running, guarded by itself. */
+    private final Map<String, Queue<Runnable>> queues = new HashMap<String, Queue<Runnable>>();
+
+    private volatile Executor executor;
+
+    /**
+     * @param executor  the executor the tasks run on.
+     */
+    KeyedSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run a task after the tasks submitted with the same key before.
+     *
+     * @param key   the key.
+     * @param task  the task.
+     * @throws RejectedExecutionException when the underlying executor rejects the task.
+     */
+    void execute(String key, Runnable task) {
+        synchronized (queues) {
+            Queue<Runnable> queue = queues.get(key);
+            if (queue != null) {
+                // the running task of the key picks it up.
+                queue.add(task);
+                return;
+            }
+            queue = new LinkedList<Runnable>();
+            queue.add(task);
+            queues.put(key, queue);
+        }
+
+        try {
+            executor.execute(new Drain(key));
+        } catch (RejectedExecutionException e) {
+            synchronized (queues) {
+                queues.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Replace the underlying executor.
+     * @param newExecutor   the new executor.
+     */
+    void setExecutor(Executor newExecutor) {
+        executor = newExecutor;
+    }
+
+    /** Runs the tasks of a key until its queue is empty. */
+    private final class Drain implements Runnable {
+
+        private final String key;
+
+        private Drain(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (queues) {
+                    task = queues.get(key).poll();
+                    if (task == null) {
+                        queues.remove(key);
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // the next tasks of the key must run anyway.
+                    Log.e(LOG_TAG, "Caught an exception in a task of " + key, e);
+                }
+            }
+        }
+    }
+}
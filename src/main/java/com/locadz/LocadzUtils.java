@@ -41,6 +41,12 @@ public class LocadzUtils {
      */
     private static final String INFO_URL = "http://api.locadz.com/rest/v1";
 
+    /**
+     * The URL the batches of impressions and clicks are posted to. It takes the place of the per-event AdWhirl
+     * metric URLs, one request carries many events.<p>
+     */
+    private static final String EVENTS_URL = INFO_URL + "/events";
+
     /**
      * Generate the URI from context of AD unit for requesting service of Locadz.<p>
      *
@@ -63,6 +69,19 @@ public class LocadzUtils {
         return URI.create(ub.build().toString());
     }
 
+    /**
+     * Generate the URI for posting the batches of ad events.<p>
+     *
+     * A batch is posted as gzipped json, see {@link AdEventTracker} for the body. A 2xx response accepts the batch.
+     * The batch is posted again later on 408 and 5xx, and dropped on any other status.<p>
+     */
+    public static final URI getEventsUri()
+    {
+        Uri.Builder ub = Uri.parse(EVENTS_URL).buildUpon();
+        ub.appendQueryParameter("client", "2");
+        return URI.create(ub.build().toString());
+    }
+
     /**
      * Retrieve api key from the context.
      * @param context   the context.
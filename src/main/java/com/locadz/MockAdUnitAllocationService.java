@@ -25,10 +25,8 @@ import com.locadz.model.Color;
 import com.locadz.model.Extra;
 import com.locadz.model.Ration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Random;
 
 /** Mock ConfigService for testing use. */
 public final class MockAdUnitAllocationService extends IntentService {
@@ -45,39 +43,20 @@ public final class MockAdUnitAllocationService extends IntentService {
         AdUnitAllocation adUnitAllocation = getAdUnitAllocation(adUnitContext);
 
         if (adUnitAllocation != null) {
-            Ration ration = getRandomRation(adUnitAllocation.getRations());
+            Ration ration = new RationSelector(adUnitAllocation.getRations()).select();
 
-            // send response through broadcast mechanism.
-            // all active LocadzLayout will receive this message, they have to filter message by themselves.
+            // deliver the response in-process, only the AdUnitLayouts of this adunit will receive it.
             Intent response = new Intent(IntentConstants.ACTION_SHOW_AD);
 
             response.putExtra(IntentConstants.EXTRA_ADUNIT_ID, adUnitContext.getAdUnitId());
             response.putExtra(IntentConstants.EXTRA_RATION, ration);
             response.putExtra(IntentConstants.EXTRA_EXTRA, adUnitAllocation.getExtra());
+            response.putExtra(IntentConstants.EXTRA_ROLLOVERS, new ArrayList<Ration>(adUnitAllocation.getRations()));
 
-            sendBroadcast(response);
+            ShowAdDispatcher.dispatch(response);
         }
     }
 
-    private Ration getRandomRation(List<Ration> rations) {
-
-        Random random = new Random();
-        int targetWeight = random.nextInt(100);
-        int c = 0;
-        Ration ret = null;
-        Iterator<Ration> it = rations.iterator();
-
-        while (it.hasNext()) {
-            ret = it.next();
-            c += ret.getWeight();
-            if (c >= targetWeight) {
-                break;
-            }
-        }
-
-        return ret;
-    }
-
     AdUnitAllocation getAdUnitAllocation(AdUnitContext adUnitContext) {
         Extra extra = new Extra(true, Color.White, Color.Black, 30000, 1);
         String adUnitId = adUnitContext.getAdUnitId();
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import com.locadz.model.Ration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks a random {@link Ration} in proportion to its weight.<p/>
+ *
+ * The selector builds an alias table (Vose's variant of Walker's alias method) once, so every
+ * {@link #select()} costs O(1) regardless of the number of rations. Weights do not need to sum up to 100 and
+ * rations with zero (or negative) weight are never selected.
+ */
+public final class RationSelector {
+
+    /** java.util.Random is thread safe, share it instead of creating one per selection. */
+    private static final Random SHARED_RANDOM = new Random();
+
+    private final Random random;
+
+    private final Ration[] rations;
+
+    /** probability of keeping column i instead of taking its alias. */
+    private final double[] probabilities;
+
+    private final int[] aliases;
+
+    /**
+     * @param candidates    the rations to select from.
+     */
+    public RationSelector(List<Ration> candidates) {
+        this(candidates, SHARED_RANDOM);
+    }
+
+    /**
+     * @param candidates    the rations to select from.
+     * @param random        the random source.
+     */
+    RationSelector(List<Ration> candidates, Random random) {
+        this.random = random;
+
+        List<Ration> weighted = new ArrayList<Ration>(candidates == null ? 0 : candidates.size());
+        long totalWeight = 0;
+        if (candidates != null) {
+            for (Ration ration : candidates) {
+                if (ration.getWeight() > 0) {
+                    weighted.add(ration);
+                    totalWeight += ration.getWeight();
+                }
+            }
+        }
+
+        int n = weighted.size();
+        rations = weighted.toArray(new Ration[n]);
+        probabilities = new double[n];
+        aliases = new int[n];
+
+        // scale the weights so that the average column is 1.0.
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0;
+        int largeSize = 0;
+
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (double) rations[i].getWeight() * n / totalWeight;
+            if (scaled[i] < 1.0) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+
+        // fill every under-full column with the remainder of an over-full one.
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+
+        // whatever is left is full up to rounding errors.
+        while (largeSize > 0) {
+            probabilities[large[--largeSize]] = 1.0;
+        }
+        while (smallSize > 0) {
+            probabilities[small[--smallSize]] = 1.0;
+        }
+    }
+
+    /**
+     * Select a random ration.
+     *
+     * @return a random ration or null if no ration has a positive weight.
+     */
+    public Ration select() {
+        if (rations.length == 0) {
+            return null;
+        }
+        int column = random.nextInt(rations.length);
+        return random.nextDouble() < probabilities[column] ? rations[column] : rations[aliases[column]];
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import com.locadz.model.Ration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Iterates the rations of an allocation in priority order for falling back when an ad network fails to
+ * deliver an ad.<p/>
+ *
+ * A new chain is created for every cycle. Networks that already failed in the current cycle are skipped.
+ * Rations with zero weight are disabled by the publisher and are never returned. This class is not thread safe,
+ * {@link AdUnitLayout} only touches it on the main thread.
+ */
+final class RolloverChain {
+
+    /** lower priority value goes first, as AdWhirl did. */
+    private static final Comparator<Ration> PRIORITY_ORDER = new Comparator<Ration>() {
+        @Override
+        public int compare(Ration lhs, Ration rhs) {
+            return lhs.getPriority() < rhs.getPriority() ? -1 : (lhs.getPriority() == rhs.getPriority() ? 0 : 1);
+        }
+    };
+
+    private final List<Ration> rations;
+
+    private final Set<Integer> failedNetworks = new HashSet<Integer>();
+
+    private int position;
+
+    /**
+     * @param rations   the rations of the allocation, in any order.
+     */
+    RolloverChain(List<Ration> rations) {
+        this.rations = new ArrayList<Ration>(rations == null ? 0 : rations.size());
+        if (rations != null) {
+            for (Ration ration : rations) {
+                if (ration.getWeight() > 0) {
+                    this.rations.add(ration);
+                }
+            }
+        }
+        Collections.sort(this.rations, PRIORITY_ORDER);
+    }
+
+    /**
+     * Record that the network of the ration failed to deliver an ad in this cycle.
+     * @param ration    the failed ration.
+     */
+    void markFailed(Ration ration) {
+        failedNetworks.add(ration.getNetworkId());
+    }
+
+    /**
+     * @return the next ration whose network has not failed in this cycle, or null if the chain is exhausted.
+     */
+    Ration next() {
+        while (position < rations.size()) {
+            Ration ration = rations.get(position++);
+            if (!failedNetworks.contains(ration.getNetworkId())) {
+                return ration;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.telephony.TelephonyManager;
+
+/**
+ * Stretches the cycle time of the server to the cost of a rotation on the device.<p/>
+ *
+ * Every rotation wakes up the radio and runs a request of an ad network. On Wi-Fi and while charging the cycle
+ * time of the server is used as it is. On a mobile network, in particular a slow one, and on a low battery the
+ * cycle is stretched, up to {@link #MAX_FACTOR} times the cycle time of the server. The cycle time of the server
+ * is always the lower bound.
+ */
+final class RotationPolicy {
+
+    /** upper bound of the stretch, the ads still have to rotate. */
+    static final float MAX_FACTOR = 4f;
+
+    /** stretch on a mobile network. */
+    private static final float MOBILE_FACTOR = 1.5f;
+
+    /** stretch on a 2G network. */
+    private static final float SLOW_MOBILE_FACTOR = 3f;
+
+    /** stretch on a low battery that is not charging. */
+    private static final float LOW_BATTERY_FACTOR = 1.5f;
+
+    /** stretch on a critical battery that is not charging. */
+    private static final float CRITICAL_BATTERY_FACTOR = 2f;
+
+    private static final int LOW_BATTERY_PERCENT = 30;
+
+    private static final int CRITICAL_BATTERY_PERCENT = 15;
+
+    /** the battery level if it is unknown. */
+    static final int BATTERY_UNKNOWN = -1;
+
+    /** Hide constructor. */
+    private RotationPolicy() {
+    }
+
+    /**
+     * @param context           the context.
+     * @param serverCycleTime   the cycle time of the server in ms.
+     * @return the cycle time for the current network and battery state in ms.
+     */
+    static long getCycleTime(Context context, long serverCycleTime) {
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(context);
+
+        // the battery broadcast is sticky, reading it does not register a receiver.
+        int batteryPercent = BATTERY_UNKNOWN;
+        boolean charging = false;
+        Intent battery = context.getApplicationContext().registerReceiver(
+            null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryPercent = level * 100 / scale;
+            }
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+
+        return getCycleTime(serverCycleTime, monitor.getNetworkType(), monitor.getNetworkSubtype(),
+            batteryPercent, charging);
+    }
+
+    /**
+     * @param serverCycleTime   the cycle time of the server in ms.
+     * @param networkType       the type of the active network, see {@link ConnectivityMonitor#getNetworkType()}.
+     * @param networkSubtype    the subtype of the active network.
+     * @param batteryPercent    the battery level in percent or {@link #BATTERY_UNKNOWN}.
+     * @param charging          true if the device is plugged in.
+     * @return the cycle time in ms.
+     */
+    static long getCycleTime(long serverCycleTime, int networkType, int networkSubtype, int batteryPercent,
+                             boolean charging) {
+        float factor = 1f;
+
+        if (networkType == ConnectivityManager.TYPE_MOBILE) {
+            factor *= isSlow(networkSubtype) ? SLOW_MOBILE_FACTOR : MOBILE_FACTOR;
+        }
+
+        if (!charging && batteryPercent != BATTERY_UNKNOWN) {
+            if (batteryPercent <= CRITICAL_BATTERY_PERCENT) {
+                factor *= CRITICAL_BATTERY_FACTOR;
+            } else if (batteryPercent <= LOW_BATTERY_PERCENT) {
+                factor *= LOW_BATTERY_FACTOR;
+            }
+        }
+
+        return (long) (serverCycleTime * Math.min(factor, MAX_FACTOR));
+    }
+
+    /**
+     * @param networkSubtype    the subtype of a mobile network.
+     * @return true for the 2G networks.
+     */
+    private static boolean isSlow(int networkSubtype) {
+        switch (networkSubtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
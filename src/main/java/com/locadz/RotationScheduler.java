@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SDK-wide scheduler that multiplexes the periodic reloads of all {@link AdUnitLayout}s, and the timers of
+ * the SDK, on a single background thread.<p/>
+ *
+ * The scheduled tasks must not hold strong references to a layout, otherwise a detached layout is kept alive
+ * until its task is cancelled. The rotation thread only keeps time: housekeeping and disk I/O run on a second
+ * background thread, see {@link #getHousekeepingExecutor()}, and commands that may wait for the network on a
+ * third one, see {@link #getNetworkExecutor()}, so that neither ever delays a reload.
+ */
+final class RotationScheduler {
+
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return newBackgroundThread(runnable, "Locadz-Rotation");
+        }
+    });
+
+    private static final ExecutorService HOUSEKEEPING_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return newBackgroundThread(runnable, "Locadz-Housekeeping");
+        }
+    });
+
+    private static final ExecutorService NETWORK_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return newBackgroundThread(runnable, "Locadz-Network");
+        }
+    });
+
+    /** Hide constructor. */
+    private RotationScheduler() {
+    }
+
+    /**
+     * @param runnable  the body of the thread.
+     * @param name      the name of the thread.
+     * @return a new thread that never keeps the process alive or competes with the UI thread.
+     */
+    private static Thread newBackgroundThread(Runnable runnable, String name) {
+        Thread ret = new Thread(runnable, name);
+        ret.setDaemon(true);
+        ret.setPriority(Thread.MIN_PRIORITY);
+        return ret;
+    }
+
+    /**
+     * Run the command periodically.
+     *
+     * @param command       the command to run.
+     * @param initialDelay  delay before the first run in ms.
+     * @param delay         delay between the end of a run and the start of the next run in ms.
+     * @return the future to cancel the command with.
+     */
+    static ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay) {
+        return EXECUTOR.scheduleWithFixedDelay(command, initialDelay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a housekeeping command periodically. The rotation thread only submits the command to the housekeeping
+     * thread, a slow run delays other housekeeping but never a reload.
+     *
+     * @param command       the command to run.
+     * @param initialDelay  delay before the first run in ms.
+     * @param delay         delay between the submissions of the command in ms.
+     * @return the future to cancel the command with.
+     */
+    static ScheduledFuture<?> scheduleHousekeeping(final Runnable command, long initialDelay, long delay) {
+        return scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                HOUSEKEEPING_EXECUTOR.execute(command);
+            }
+        }, initialDelay, delay);
+    }
+
+    /**
+     * Run a command once after a delay. The command runs on the rotation thread, it must be short.
+     *
+     * @param command   the command to run.
+     * @param delay     delay before the run in ms.
+     * @return the future to cancel the command with.
+     */
+    static ScheduledFuture<?> schedule(Runnable command, long delay) {
+        return EXECUTOR.schedule(command, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a one-off housekeeping command in the background.
+     *
+     * @param command   the command to run.
+     */
+    static void execute(Runnable command) {
+        HOUSEKEEPING_EXECUTOR.execute(command);
+    }
+
+    /**
+     * @return the executor of one-off housekeeping commands, disk I/O included.
+     */
+    static Executor getHousekeepingExecutor() {
+        return HOUSEKEEPING_EXECUTOR;
+    }
+
+    /**
+     * @return the executor of one-off background commands that may block on the network for a while.
+     */
+    static Executor getNetworkExecutor() {
+        return NETWORK_EXECUTOR;
+    }
+
+    /**
+     * Cancel a scheduled command and drop it from the queue right away instead of at its next run.
+     *
+     * @param future    the future returned by {@link #scheduleWithFixedDelay}.
+     */
+    static void cancel(ScheduledFuture<?> future) {
+        future.cancel(false);
+        EXECUTOR.purge();
+    }
+}
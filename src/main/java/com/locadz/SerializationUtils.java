@@ -16,11 +16,25 @@
 
 package com.locadz;
 
+import com.locadz.model.AdUnitAllocation;
+import com.locadz.model.Color;
+import com.locadz.model.Extra;
+import com.locadz.model.Ration;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.type.JavaType;
 import org.codehaus.jackson.type.TypeReference;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utils for serializations.
@@ -32,12 +46,76 @@ public abstract class SerializationUtils {
      */
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /** the mapper of the model types only, tuned for them, so that the other types keep the defaults of MAPPER. */
+    private static final ObjectMapper MODEL_MAPPER = new ObjectMapper();
+
+    /** the types exchanged with the Locadz server, their readers and writers are built up front. */
+    private static final Class<?>[] MODEL_TYPES = { AdUnitAllocation.class, Ration.class, Extra.class, Color.class };
+
+    /**
+     * readers by target type, an ObjectReader skips the type resolution of ObjectMapper.readValue(). The readers of
+     * the model types come from MODEL_MAPPER.
+     */
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+    /** writers by source type. */
+    private static final ConcurrentMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+    private static volatile boolean warmedUp;
+
+    static {
+        // the models are immutable and built through their @JsonCreator constructors, all of them public.
+        MODEL_MAPPER.configure(DeserializationConfig.Feature.USE_GETTERS_AS_SETTERS, false);
+        MODEL_MAPPER.configure(DeserializationConfig.Feature.AUTO_DETECT_SETTERS, false);
+        MODEL_MAPPER.configure(DeserializationConfig.Feature.AUTO_DETECT_FIELDS, false);
+        MODEL_MAPPER.configure(DeserializationConfig.Feature.CAN_OVERRIDE_ACCESS_MODIFIERS, false);
+        MODEL_MAPPER.configure(SerializationConfig.Feature.CAN_OVERRIDE_ACCESS_MODIFIERS, false);
+
+        // readers and writers capture the configuration, create them after configuring the mapper.
+        for (Class<?> type : MODEL_TYPES) {
+            READERS.put(type, MODEL_MAPPER.reader(type));
+            WRITERS.put(type, MODEL_MAPPER.writerWithType(type));
+        }
+    }
+
     /**
      * Hide constructor.
      */
     private SerializationUtils() {
     }
 
+    /**
+     * Build the (de)serializers of the model types, so that the first config parsed after a cold start does not
+     * pay for the introspection of the model classes. Only the first call does the work, call it off the main
+     * thread.
+     */
+    public static void warmUp() {
+        if (warmedUp) {
+            return;
+        }
+        for (Class<?> type : MODEL_TYPES) {
+            MODEL_MAPPER.canDeserialize(MODEL_MAPPER.constructType(type));
+            MODEL_MAPPER.canSerialize(type);
+        }
+        warmedUp = true;
+    }
+
+    /**
+     * @param clazz the type of the java object to read.
+     * @return the cached reader for the type.
+     */
+    private static ObjectReader getReader(Class<?> clazz) {
+        ObjectReader ret = READERS.get(clazz);
+        if (ret == null) {
+            ret = MAPPER.reader(clazz);
+            ObjectReader existing = READERS.putIfAbsent(clazz, ret);
+            if (existing != null) {
+                ret = existing;
+            }
+        }
+        return ret;
+    }
+
     /**
      * Read json input string the Java Object.
      *
@@ -62,7 +140,7 @@ public abstract class SerializationUtils {
      * @throws IOException when read fails.
      */
     public static <T> T fromJson(final String input, final Class<T> clazz) throws IOException {
-        return MAPPER.readValue(input, clazz);
+        return getReader(clazz).<T>readValue(input);
     }
     
     /**
@@ -75,7 +153,7 @@ public abstract class SerializationUtils {
      * @throws IOException when read fails.
      */
     public static <T> T fromJson(final byte[] input, final Class<T> clazz) throws IOException {
-        return MAPPER.readValue(input, clazz);
+        return getReader(clazz).<T>readValue(input);
     }
 
     /**
@@ -106,6 +184,52 @@ public abstract class SerializationUtils {
         return (T) MAPPER.readValue(input, clazz);
     }
     
+    /**
+     * Read json input stream to the Java Object without buffering the whole input first.<p/>
+     *
+     * The stream is not closed. The parser buffers its input, it may have read past the end of the json value.
+     *
+     * @param input the input stream.
+     * @param clazz the type of the java object to read.
+     * @param <T>   the type of the java object to read.
+     * @return java representation of the json input stream.
+     * @throws IOException when read fails.
+     */
+    public static <T> T fromJson(final InputStream input, final Class<T> clazz) throws IOException {
+        JsonParser parser = MAPPER.getJsonFactory().createJsonParser(input);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            return getReader(clazz).<T>readValue(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Check that a range of bytes holds exactly one json object, without binding it to a java object.
+     *
+     * @param input     the input.
+     * @param offset    the start of the range.
+     * @param length    the length of the range.
+     * @return true if the range is a single well-formed json object.
+     */
+    public static boolean isJsonObject(final byte[] input, final int offset, final int length) {
+        try {
+            JsonParser parser = MAPPER.getJsonFactory().createJsonParser(input, offset, length);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return false;
+                }
+                parser.skipChildren();
+                return parser.nextToken() == null;
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     /**
      * Write java object to json string.
      * @param obj   the java object
@@ -113,7 +237,8 @@ public abstract class SerializationUtils {
      * @throws IOException  when write fails.
      */
     public static String toJson(Object obj) throws IOException {
-        return MAPPER.writeValueAsString(obj);
+        ObjectWriter writer = obj == null ? null : WRITERS.get(obj.getClass());
+        return writer != null ? writer.writeValueAsString(obj) : MAPPER.writeValueAsString(obj);
     }
 
 }
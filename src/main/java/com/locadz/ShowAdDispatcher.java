@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process delivery of SHOW_AD responses from {@link AdUnitAllocationService} to the {@link AdUnitLayout}s
+ * of the same ad unit.<p/>
+ *
+ * Unlike {@link android.content.Context#sendBroadcast(Intent)}, the response does not go through the binder, its
+ * extras are never marshalled and only the listeners subscribed to the ad unit id of the response are invoked.
+ */
+public final class ShowAdDispatcher {
+
+    /** Listener of SHOW_AD responses. */
+    public interface ShowAdListener {
+
+        /**
+         * Invoked on the dispatching thread (the worker thread of the service), implementations have to hand
+         * over to the main thread by themselves.
+         *
+         * @param response  the SHOW_AD response.
+         */
+        void onShowAd(Intent response);
+    }
+
+    /** listeners by ad unit id. */
+    private static final Map<String, List<ShowAdListener>> LISTENERS = new HashMap<String, List<ShowAdListener>>();
+
+    /** Hide constructor. */
+    private ShowAdDispatcher() {
+    }
+
+    /**
+     * Subscribe a listener to the responses of an ad unit.
+     *
+     * @param adUnitId  the id of the ad unit.
+     * @param listener  the listener.
+     */
+    public static void register(String adUnitId, ShowAdListener listener) {
+        synchronized (LISTENERS) {
+            List<ShowAdListener> listeners = LISTENERS.get(adUnitId);
+            if (listeners == null) {
+                listeners = new CopyOnWriteArrayList<ShowAdListener>();
+                LISTENERS.put(adUnitId, listeners);
+            }
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unsubscribe a listener from the responses of an ad unit.
+     *
+     * @param adUnitId  the id of the ad unit.
+     * @param listener  the listener.
+     */
+    public static void unregister(String adUnitId, ShowAdListener listener) {
+        synchronized (LISTENERS) {
+            List<ShowAdListener> listeners = LISTENERS.get(adUnitId);
+            if (listeners != null) {
+                listeners.remove(listener);
+                if (listeners.isEmpty()) {
+                    LISTENERS.remove(adUnitId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver a SHOW_AD response to the listeners of the ad unit specified in
+     * {@link IntentConstants#EXTRA_ADUNIT_ID}.
+     *
+     * @param response  the response.
+     * @return true if at least one listener received the response.
+     */
+    public static boolean dispatch(Intent response) {
+        String adUnitId = response.getStringExtra(IntentConstants.EXTRA_ADUNIT_ID);
+
+        List<ShowAdListener> listeners;
+        synchronized (LISTENERS) {
+            listeners = LISTENERS.get(adUnitId);
+        }
+        if (listeners == null) {
+            return false;
+        }
+
+        // CopyOnWriteArrayList iterates a snapshot, listeners may unregister themselves during the iteration.
+        boolean ret = false;
+        for (ShowAdListener listener : listeners) {
+            listener.onShowAd(response);
+            ret = true;
+        }
+        return ret;
+    }
+}
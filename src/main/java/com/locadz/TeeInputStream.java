@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Input stream that copies every byte read from the underlying stream to an output stream, so that a response body
+ * can be parsed and kept in its raw form in a single pass.
+ */
+final class TeeInputStream extends FilterInputStream {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final OutputStream copy;
+
+    /**
+     * @param in    the stream to read from.
+     * @param copy  the stream that receives a copy of every byte read.
+     */
+    TeeInputStream(InputStream in, OutputStream copy) {
+        super(in);
+        this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int ret = super.read();
+        if (ret != -1) {
+            copy.write(ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int ret = super.read(buffer, offset, length);
+        if (ret > 0) {
+            copy.write(buffer, offset, ret);
+        }
+        return ret;
+    }
+
+    /** {@inheritDoc} Skipped bytes are read, so that they are copied as well. */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+        long ret = 0;
+        while (ret < n) {
+            int read = read(buffer, 0, (int) Math.min(n - ret, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            ret += read;
+        }
+        return ret;
+    }
+
+    /** Marking is not supported, a reset would copy the same bytes twice. */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Read the rest of the underlying stream, so that the copy is complete even if the reader stopped early.
+     * @throws IOException when read fails.
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // copied by read().
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012. Blue Tang Studio LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.locadz;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.locadz.LocadzUtils.LOG_TAG;
+
+/**
+ * Write-behind buffer in front of a persistent store.<p/>
+ *
+ * Writes are queued per key and flushed in a batch on a background thread, so the caller never waits for the
+ * disk. A write replaces a pending write of the same key (last writer wins), and the writes of a key reach the
+ * store in the order they were made. Pending values are visible through {@link #get(String)} until they are
+ * written. A failed write is retried after {@link #RETRY_DELAY}, up to {@link #MAX_WRITE_ATTEMPTS} times.<p/>
+ *
+ * {@link #flushAll()} writes out every pending value synchronously. It is called from background threads right
+ * before the SDK may lose its process, e.g. when {@link AdUnitAllocationService} runs out of requests; there is
+ * no shutdown hook, Android kills processes without running them.
+ *
+ * @param <V>   the type of the values.
+ */
+final class WriteBehindQueue<V> {
+
+    /** The persistent store behind a queue. */
+    interface Sink<V> {
+
+        /**
+         * Write a value to the store, called on the flushing thread.
+         *
+         * @param key   the key.
+         * @param value the value.
+         * @throws IOException when write fails.
+         */
+        void write(String key, V value) throws IOException;
+    }
+
+    /** how many times a value is written before it is dropped. */
+    static final int MAX_WRITE_ATTEMPTS = 3;
+
+    /** delay before a failed write is retried. */
+    static final long RETRY_DELAY = 5 * 1000; // 5 seconds.
+
+    /** the open queues of the process, for {@link #flushAll()}. */
+    private static final List<WriteBehindQueue<?>> QUEUES = new CopyOnWriteArrayList<WriteBehindQueue<?>>();
+
+    private final Sink<V> sink;
+
+    private volatile Executor executor;
+
+    private volatile long retryDelay = RETRY_DELAY;
+
+    /** pending values by key, guarded by this. */
+    private final Map<String, V> pending = new LinkedHashMap<String, V>();
+
+    /** failed writes by key of the pending values, guarded by this. */
+    private final Map<String, Integer> failures = new HashMap<String, Integer>();
+
+    /** true while a flush is submitted but has not taken its batch yet, guarded by this. */
+    private boolean flushScheduled;
+
+    /** serializes the flushes, so that an older value of a key never overwrites a newer one. */
+    private final Object flushLock = new Object();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /** submits the retry of the failed writes, runs on the {@link RotationScheduler}. */
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFlush();
+        }
+    };
+
+    /**
+     * @param sink      the store to write to.
+     * @param executor  the executor of the background flushes.
+     */
+    WriteBehindQueue(Sink<V> sink, Executor executor) {
+        this.sink = sink;
+        this.executor = executor;
+        QUEUES.add(this);
+    }
+
+    /**
+     * Queue a write.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    void put(String key, V value) {
+        synchronized (this) {
+            pending.put(key, value);
+            failures.remove(key);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Submit a flush to the executor unless one is submitted already.
+     */
+    private void scheduleFlush() {
+        synchronized (this) {
+            if (flushScheduled || pending.isEmpty()) {
+                // coalesced into the submitted flush.
+                return;
+            }
+            flushScheduled = true;
+        }
+
+        try {
+            executor.execute(flushTask);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Failed to submit flush, writing through.", e);
+            flush();
+        }
+    }
+
+    /**
+     * @param key   the key.
+     * @return the value of the key that has not been written yet or null.
+     */
+    synchronized V get(String key) {
+        return pending.get(key);
+    }
+
+    /**
+     * Drop the pending writes.
+     */
+    synchronized void clear() {
+        pending.clear();
+        failures.clear();
+    }
+
+    /**
+     * Write the pending values and remove this queue from {@link #flushAll()}.
+     */
+    void close() {
+        QUEUES.remove(this);
+        flush();
+    }
+
+    /**
+     * Replace the executor of the background flushes.
+     * @param executor  the new executor.
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Replace the delay before a failed write is retried, 0 retries on the flush executor right away.
+     * @param retryDelay    the new delay in ms.
+     */
+    void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Write all pending values to the store on the calling thread.
+     */
+    void flush() {
+        boolean retry = false;
+        synchronized (flushLock) {
+            Map<String, V> batch;
+            synchronized (this) {
+                // a write from now on schedules another flush.
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new LinkedHashMap<String, V>(pending);
+            }
+
+            for (Map.Entry<String, V> entry : batch.entrySet()) {
+                String key = entry.getKey();
+                IOException failure = null;
+                try {
+                    sink.write(key, entry.getValue());
+                } catch (IOException e) {
+                    failure = e;
+                }
+                synchronized (this) {
+                    // keep a value that has been replaced meanwhile, the next flush writes it.
+                    if (pending.get(key) != entry.getValue()) {
+                        continue;
+                    }
+                    if (failure == null) {
+                        pending.remove(key);
+                        failures.remove(key);
+                        continue;
+                    }
+
+                    Integer failed = failures.get(key);
+                    int attempts = failed == null ? 1 : failed + 1;
+                    if (attempts < MAX_WRITE_ATTEMPTS) {
+                        Log.w(LOG_TAG, String.format("Failed to persist %s, will retry.", key), failure);
+                        failures.put(key, attempts);
+                        retry = true;
+                    } else {
+                        Log.w(LOG_TAG, String.format("Failed to persist %s, giving up.", key), failure);
+                        pending.remove(key);
+                        failures.remove(key);
+                    }
+                }
+            }
+        }
+
+        if (retry) {
+            long delay = retryDelay;
+            if (delay > 0) {
+                RotationScheduler.schedule(retryTask, delay);
+            } else {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Write the pending values of all queues on the calling thread.
+     */
+    static void flushAll() {
+        for (WriteBehindQueue<?> queue : QUEUES) {
+            queue.flush();
+        }
+    }
+}
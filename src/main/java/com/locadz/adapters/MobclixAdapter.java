@@ -129,7 +129,7 @@ public class MobclixAdapter extends AdWhirlAdapter {
             if (locadzLayout == null) {
                 return;
             }
-            locadzLayout.submitReloadAdRequest();
+            locadzLayout.submitRolloverRequest(ration);
             // :~)
         }
         @Override
@@ -144,6 +144,7 @@ public class MobclixAdapter extends AdWhirlAdapter {
         public void onAdClick(MobclixAdView adView)
         {
             Log.v(LocadzUtils.LOG_TAG, "Advertisement of MobClix has been clicked");
+            countClick();
         }
         @Override
         public void onCustomAdTouchThrough(MobclixAdView adView, String string)
@@ -0,0 +1,137 @@
+package com.locadz;
+
+import com.locadz.model.Ration;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.codehaus.jackson.type.TypeReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdEventTrackerTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Ration ration = new Ration("allocId", "network1", 1, 100, 1, "akey");
+
+    private File directory;
+
+    private AdEventTracker tracker;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("events", "");
+        directory.delete();
+        tracker = new AdEventTracker(directory, null, DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testUploadSendsEventsInOneRequest() throws IOException {
+        tracker.record(AdEventTracker.TYPE_IMPRESSION, "unit", ration);
+        tracker.record(AdEventTracker.TYPE_IMPRESSION, "unit", ration);
+        tracker.record(AdEventTracker.TYPE_CLICK, "unit", ration);
+        tracker.rotateLog();
+
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, "");
+        Assert.assertTrue(tracker.upload());
+
+        HttpEntityEnclosingRequest sentRequest = (HttpEntityEnclosingRequest) Robolectric.getSentHttpRequest(0);
+        Assert.assertEquals("gzip", sentRequest.getEntity().getContentEncoding().getValue());
+        Map<String, Object> body = SerializationUtils.fromJson(gunzip(sentRequest.getEntity().getContent()),
+            new TypeReference<Map<String, Object>>() { });
+        List<?> events = (List<?>) body.get("events");
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals(AdEventTracker.TYPE_CLICK, ((Map<?, ?>) events.get(2)).get("event"));
+        Assert.assertEquals("allocId", ((Map<?, ?>) events.get(2)).get("nid"));
+
+        // the batch is gone once it has been accepted.
+        Assert.assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testFailedUploadKeepsBatch() {
+        tracker.record(AdEventTracker.TYPE_IMPRESSION, "unit", ration);
+        tracker.rotateLog();
+
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR, "");
+        Assert.assertFalse(tracker.upload());
+        Assert.assertEquals(1, directory.listFiles().length);
+
+        // the next process picks the batch up.
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, "");
+        Assert.assertTrue(new AdEventTracker(directory, null, DIRECT_EXECUTOR, DIRECT_EXECUTOR).upload());
+        Assert.assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testPartialLineOfKilledProcessIsSkipped() throws IOException {
+        tracker.record(AdEventTracker.TYPE_IMPRESSION, "unit", ration);
+
+        // the process died while appending the next event.
+        OutputStream out = new FileOutputStream(new File(directory, "events.log"), true);
+        out.write("{\"event\":\"impre".getBytes("UTF-8"));
+        out.close();
+
+        AdEventTracker next = new AdEventTracker(directory, null, DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+        next.record(AdEventTracker.TYPE_CLICK, "unit", ration);
+        next.rotateLog();
+
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, "");
+        Assert.assertTrue(next.upload());
+
+        HttpEntityEnclosingRequest sentRequest = (HttpEntityEnclosingRequest) Robolectric.getSentHttpRequest(0);
+        Map<String, Object> body = SerializationUtils.fromJson(gunzip(sentRequest.getEntity().getContent()),
+            new TypeReference<Map<String, Object>>() { });
+        List<?> events = (List<?>) body.get("events");
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(AdEventTracker.TYPE_IMPRESSION, ((Map<?, ?>) events.get(0)).get("event"));
+        Assert.assertEquals(AdEventTracker.TYPE_CLICK, ((Map<?, ?>) events.get(1)).get("event"));
+    }
+
+    private static String gunzip(InputStream in) throws IOException {
+        InputStream gzip = new GZIPInputStream(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = gzip.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+}
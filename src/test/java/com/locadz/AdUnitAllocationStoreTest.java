@@ -0,0 +1,77 @@
+package com.locadz;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ *
+ */
+public class AdUnitAllocationStoreTest {
+
+    private File directory;
+
+    private AdUnitAllocationStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("allocations", "");
+        directory.delete();
+        store = new AdUnitAllocationStore(directory);
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+        store.close();
+        directory.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        store.write("unit", new AdUnitAllocationStore.Record(42, "\"v1\"", null, "{}".getBytes("UTF-8")));
+        store.flush();
+
+        // read a fresh store, so that the file is read rather than the pending write.
+        AdUnitAllocationStore.Record actual = new AdUnitAllocationStore(directory).read("unit");
+        Assert.assertEquals(42, actual.getTimestamp());
+        Assert.assertEquals("\"v1\"", actual.getEtag());
+        Assert.assertNull(actual.getLastModified());
+        Assert.assertEquals("{}", new String(actual.getConfig(), "UTF-8"));
+
+        // only the config file is left, the temporary file has been renamed.
+        Assert.assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testReadMissing() throws IOException {
+        Assert.assertNull(store.read("unit"));
+    }
+
+    @Test
+    public void testReadUnknownFormat() throws IOException {
+        store.write("unit", new AdUnitAllocationStore.Record(42, null, null, new byte[0]));
+        store.flush();
+
+        FileOutputStream out = new FileOutputStream(directory.listFiles()[0]);
+        out.write("<map/>".getBytes("UTF-8"));
+        out.close();
+
+        Assert.assertNull(store.read("unit"));
+    }
+
+    @Test
+    public void testAdUnitIdIsNotAPath() throws IOException {
+        store.write("../unit", new AdUnitAllocationStore.Record(42, null, null, new byte[0]));
+        store.flush();
+
+        Assert.assertNull(store.read("unit"));
+        Assert.assertNotNull(store.read("../unit"));
+        Assert.assertEquals(1, directory.listFiles().length);
+    }
+}
@@ -0,0 +1,142 @@
+package com.locadz;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.view.View;
+import android.widget.FrameLayout;
+import com.adwhirl.adapters.AdWhirlAdapter;
+import com.adwhirl.adapters.AdapterFactory;
+import com.adwhirl.adapters.AdapterRegistry;
+import com.locadz.model.Color;
+import com.locadz.model.Extra;
+import com.locadz.model.Ration;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdUnitLayoutTest {
+
+    private static final int NETWORK_A = 9001;
+
+    private static final int NETWORK_B = 9002;
+
+    private final Ration rationA = new Ration("allocId", "networkA", NETWORK_A, 50, 1, "akey");
+
+    private final Ration rationB = new Ration("allocId", "networkB", NETWORK_B, 50, 2, "bkey");
+
+    private final Extra extra = new Extra(false, Color.White, Color.Black, 30000, 1);
+
+    private final List<FakeAdapter> adapters = new ArrayList<FakeAdapter>();
+
+    private AdUnitLayout layout;
+
+    @Before
+    public void setUp() {
+        AdapterFactory factory = new AdapterFactory() {
+            @Override
+            public AdWhirlAdapter create(AdUnitLayout layout, Ration ration, Extra extra) {
+                FakeAdapter ret = new FakeAdapter(layout, ration, extra);
+                adapters.add(ret);
+                return ret;
+            }
+        };
+        AdapterRegistry.register(NETWORK_A, factory);
+        AdapterRegistry.register(NETWORK_B, factory);
+
+        layout = new AdUnitLayout(new Activity(), "testAdUnitLayout");
+        layout.setAdaptiveCycleTime(false);
+    }
+
+    @After
+    public void tearDown() {
+        AdapterRegistry.unregister(NETWORK_A);
+        AdapterRegistry.unregister(NETWORK_B);
+    }
+
+    @Test
+    public void testRolloverOfPrefetchKeepsShownAdapter() {
+        List<Ration> candidates = Arrays.asList(rationA, rationB);
+
+        // the first cycle shows its view right away.
+        layout.rotateAd(rationA, extra, candidates);
+        FakeAdapter shown = adapters.get(0);
+        FrameLayout shownView = new FrameLayout(layout.getContext());
+        layout.pushSubView(shownView);
+        Assert.assertSame(shownView, layout.getChildAt(0));
+
+        // the next cycle is a prefetch, its view is held until the current cycle ends.
+        layout.rotateAd(rationA, extra, candidates);
+        FakeAdapter prefetched = adapters.get(1);
+        layout.pushSubView(new FrameLayout(layout.getContext()));
+        Assert.assertSame(shownView, layout.getChildAt(0));
+
+        // a late failure of the prefetched network rolls over to the next one.
+        layout.rolloverAd(rationA);
+        FakeAdapter rollover = adapters.get(2);
+        Assert.assertEquals(rationB, rollover.getRation());
+        Assert.assertFalse(shown.destroyed);
+        Assert.assertFalse(prefetched.destroyed);
+
+        FrameLayout rolloverView = new FrameLayout(layout.getContext());
+        layout.pushSubView(rolloverView);
+        Assert.assertSame(shownView, layout.getChildAt(0));
+        Assert.assertFalse(shown.destroyed);
+        Assert.assertTrue(prefetched.destroyed);
+
+        layout.swapPrefetchedAd();
+        Assert.assertSame(rolloverView, layout.getChildAt(0));
+        Assert.assertFalse(shown.destroyed);
+        Assert.assertFalse(rollover.destroyed);
+    }
+
+    @Test
+    public void testVisibleAgainBeforeFirstAdRequestsAd() {
+        // drop the request of the constructor, its response arrives while the layout is invisible.
+        while (Robolectric.getShadowApplication().getNextStartedService() != null) {
+            continue;
+        }
+        layout.onWindowVisibilityChanged(View.GONE);
+        Assert.assertNull(Robolectric.getShadowApplication().getNextStartedService());
+
+        layout.onWindowVisibilityChanged(View.VISIBLE);
+        Intent request = Robolectric.getShadowApplication().getNextStartedService();
+        Assert.assertNotNull(request);
+        Assert.assertEquals("testAdUnitLayout", request.getStringExtra(IntentConstants.EXTRA_ADUNIT_ID));
+    }
+
+    /** An adapter that records whether it has been destroyed. */
+    private static final class FakeAdapter extends AdWhirlAdapter {
+
+        private boolean destroyed;
+
+        FakeAdapter(AdUnitLayout layout, Ration ration, Extra extra) {
+            super(layout, ration, extra);
+        }
+
+        Ration getRation() {
+            return ration;
+        }
+
+        @Override
+        public void handle() {
+        }
+
+        @Override
+        public void willDestroy() {
+            destroyed = true;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.locadz;
+
+import android.app.Activity;
+import android.widget.FrameLayout;
+import com.locadz.model.Ration;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdViewPoolTest {
+
+    private final Ration ration = new Ration("allocId", "network1", 1, 100, 1, "akey");
+
+    private final Activity activity = new Activity();
+
+    @After
+    public void tearDown() {
+        AdViewPool.setCapacity(AdViewPool.DEFAULT_CAPACITY);
+    }
+
+    @Test
+    public void testTakeNewestViewOfContext() {
+        AdViewPool pool = AdViewPool.getInstance("testTakeNewestViewOfContext");
+        FrameLayout older = new FrameLayout(activity);
+        FrameLayout newer = new FrameLayout(activity);
+        FrameLayout other = new FrameLayout(new Activity());
+        pool.offer(older, ration, null, 0, 0);
+        pool.offer(newer, ration, null, 10, 10);
+        pool.offer(other, ration, null, 20, 20);
+
+        Assert.assertSame(newer, pool.take(activity, 30).getView());
+        Assert.assertSame(older, pool.take(activity, 30).getView());
+        Assert.assertNull(pool.take(activity, 30));
+    }
+
+    @Test
+    public void testTakeDropsExpiredViews() {
+        AdViewPool pool = AdViewPool.getInstance("testTakeDropsExpiredViews");
+        FrameLayout view = new FrameLayout(activity);
+        pool.offer(view, ration, null, 0, 0);
+
+        Assert.assertNull(pool.take(activity, AdViewPool.DEFAULT_TTL));
+        Assert.assertFalse(pool.withdraw(view));
+    }
+
+    @Test
+    public void testOfferDropsExpiredViews() {
+        AdViewPool pool = AdViewPool.getInstance("testOfferDropsExpiredViews");
+        FrameLayout expired = new FrameLayout(activity);
+        FrameLayout view = new FrameLayout(activity);
+        pool.offer(expired, ration, null, 0, 0);
+        pool.offer(view, ration, null, AdViewPool.DEFAULT_TTL, AdViewPool.DEFAULT_TTL);
+
+        Assert.assertFalse(pool.withdraw(expired));
+        Assert.assertTrue(pool.withdraw(view));
+    }
+
+    @Test
+    public void testDetachOfLastLayoutDropsViewsOfContext() {
+        AdViewPool pool = AdViewPool.getInstance("testDetachOfLastLayoutDropsViewsOfContext");
+        FrameLayout view = new FrameLayout(activity);
+        pool.attach(activity);
+        pool.attach(activity);
+        pool.offer(view, ration, null, 0, 0);
+
+        // another layout of the Activity may still take the view.
+        pool.detach(activity);
+        Assert.assertTrue(pool.withdraw(view));
+
+        pool.offer(view, ration, null, 0, 0);
+        pool.detach(activity);
+        Assert.assertFalse(pool.withdraw(view));
+    }
+
+    @Test
+    public void testOfferEvictsOldestView() {
+        AdViewPool.setCapacity(1);
+        AdViewPool pool = AdViewPool.getInstance("testOfferEvictsOldestView");
+        FrameLayout older = new FrameLayout(activity);
+        FrameLayout newer = new FrameLayout(activity);
+        pool.offer(older, ration, null, 0, 0);
+        pool.offer(newer, ration, null, 0, 0);
+
+        Assert.assertFalse(pool.withdraw(older));
+        Assert.assertTrue(pool.withdraw(newer));
+        Assert.assertNull(pool.take(activity, 0));
+    }
+}
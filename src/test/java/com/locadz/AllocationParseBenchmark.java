@@ -0,0 +1,123 @@
+package com.locadz;
+
+import com.locadz.model.AdUnitAllocation;
+import com.locadz.model.Color;
+import com.locadz.model.Extra;
+import com.locadz.model.Ration;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro benchmark that compares parsing an allocation response from the entity stream while copying its raw bytes
+ * with buffering the response as a String and parsing that String, as AdUnitAllocationService used to do.<p/>
+ *
+ * Allocated bytes are reported when the JVM supports per thread allocation accounting (HotSpot does).
+ * Run it with <code>java -cp target/classes:target/test-classes:&lt;dependencies&gt;
+ * com.locadz.AllocationParseBenchmark</code>.
+ */
+public final class AllocationParseBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int ROUNDS = 10;
+
+    private static final int PARSES = 10000;
+
+    private AllocationParseBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (int size : new int[] { 2, 8, 32 }) {
+            byte[] body = createBody(size);
+
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                runStreaming(body);
+                runString(body);
+            }
+
+            long[] streaming = new long[2];
+            long[] string = new long[2];
+            for (int i = 0; i < ROUNDS; i++) {
+                add(streaming, runStreaming(body));
+                add(string, runString(body));
+            }
+
+            System.out.println(String.format(
+                "%2d rations (%5d bytes): streaming %7.1f us/op %7d B/op, string %7.1f us/op %7d B/op",
+                size, body.length,
+                (double) streaming[0] / ROUNDS / PARSES / 1000, streaming[1] / ROUNDS / PARSES,
+                (double) string[0] / ROUNDS / PARSES / 1000, string[1] / ROUNDS / PARSES));
+        }
+    }
+
+    private static byte[] createBody(int size) throws IOException {
+        List<Ration> rations = new ArrayList<Ration>(size);
+        for (int i = 0; i < size; i++) {
+            rations.add(new Ration("allocId", "network" + i, i, 100 / size, i, "akey" + i));
+        }
+        Extra extra = new Extra(true, Color.White, Color.Black, 30, 1);
+        return SerializationUtils.toJson(new AdUnitAllocation(extra, rations)).getBytes("UTF-8");
+    }
+
+    private static long[] runStreaming(byte[] body) throws IOException {
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < PARSES; i++) {
+            HttpEntity entity = new ByteArrayEntity(body);
+            ByteArrayOutputStream raw = new ByteArrayOutputStream((int) entity.getContentLength());
+            TeeInputStream in = new TeeInputStream(entity.getContent(), raw);
+            AdUnitAllocation allocation = SerializationUtils.fromJson(in, AdUnitAllocation.class);
+            in.drain();
+            String stored = raw.toString("UTF-8");
+            sink += allocation.getRations().size() + stored.length();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return new long[] { elapsed, getAllocatedBytes() - allocated };
+    }
+
+    private static long[] runString(byte[] body) throws IOException {
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < PARSES; i++) {
+            HttpEntity entity = new ByteArrayEntity(body);
+            String stored = EntityUtils.toString(entity);
+            AdUnitAllocation allocation = SerializationUtils.fromJson(stored, AdUnitAllocation.class);
+            sink += allocation.getRations().size() + stored.length();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return new long[] { elapsed, getAllocatedBytes() - allocated };
+    }
+
+    /** @return the bytes allocated by the current thread so far or 0 if the JVM does not tell. */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void add(long[] total, long[] run) {
+        total[0] += run[0];
+        total[1] += run[1];
+    }
+
+    private static void consume(int sink) {
+        if (sink == Integer.MIN_VALUE) {
+            System.out.println(sink);
+        }
+    }
+}
@@ -1,30 +1,58 @@
 package com.locadz;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import com.locadz.model.AdUnitAllocation;
 import com.xtremelabs.robolectric.Robolectric;
 import com.xtremelabs.robolectric.RobolectricTestRunner;
 
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 /**
  *
  */
 @RunWith(RobolectricTestRunner.class)
 public class ConfigServiceTest  {
 
+    /** runs background refreshes in the calling thread. */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        AdUnitAllocationService.clearAllocationCache();
+        AdUnitAllocationService.clearFetchBackoffs();
+        AdUnitAllocationStore store =
+            AdUnitAllocationStore.getInstance(Robolectric.getShadowApplication().getApplicationContext());
+        store.clear();
+        store.setFlushExecutor(DIRECT_EXECUTOR);
+        AdUnitAllocationService.setRefreshExecutor(DIRECT_EXECUTOR);
+        AdUnitAllocationService.setRequestExecutor(DIRECT_EXECUTOR);
+    }
+
     @Test
     public void testLoadConfigFromRemote() {
         AdUnitAllocationService service = new AdUnitAllocationService();
         
-        String expected = "TEST_DATA";
+        String expected = TestDataUtils.getAdUnitAllocationAsString();
         Robolectric.addPendingHttpResponse(200, expected);
         
         String res = service.loadFromRemote(TestDataUtils.getAdUnitContext());
@@ -45,64 +73,234 @@ public class ConfigServiceTest  {
     }
 
     @Test
-    public void testLoadFromEmptySharedPreferences() {
+    public void testLoadConfigFromRemoteBacksOffAfterFailure() {
+        AdUnitAllocationService service = new AdUnitAllocationService();
+
+        Robolectric.addPendingHttpResponse(500, "");
+        Assert.assertNull(service.loadFromRemote(TestDataUtils.getAdUnitContext()));
+
+        // the retry is not sent before the backoff has passed.
+        Robolectric.addPendingHttpResponse(200, TestDataUtils.getAdUnitAllocationAsString());
+        Assert.assertNull(service.loadFromRemote(TestDataUtils.getAdUnitContext()));
+
+        AdUnitAllocationService.clearFetchBackoffs();
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocationAsString(),
+            service.loadFromRemote(TestDataUtils.getAdUnitContext()));
+    }
+
+    @Test
+    public void testLoadConfigFromRemoteStoresValidators() throws UnsupportedEncodingException {
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+
+        HttpResponse httpResponse =
+            TestDataUtils.getHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+        httpResponse.addHeader("ETag", "\"v1\"");
+        httpResponse.addHeader("Last-Modified", "Tue, 15 Nov 1994 12:45:26 GMT");
+        Robolectric.addPendingHttpResponse(httpResponse);
+
+        service.loadFromRemote(adUnitContext);
+
+        AdUnitAllocationStore.Record stored = service.readStore(adUnitContext);
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocationAsString(), new String(stored.getConfig(), "UTF-8"));
+        Assert.assertEquals("\"v1\"", stored.getEtag());
+        Assert.assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", stored.getLastModified());
+    }
+
+    @Test
+    public void testLoadConfigFromRemoteKeepsStoredConfigOnInvalidResponse() throws IOException {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        writeConfig(adUnitContext, new AdUnitAllocationStore.Record(0, "\"v1\"", null,
+            TestDataUtils.getAdUnitAllocationAsString().getBytes("UTF-8")));
+
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, "not a config");
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        Assert.assertNull(service.loadFromRemote(adUnitContext));
+
+        AdUnitAllocationStore.Record stored = service.readStore(adUnitContext);
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocationAsString(), new String(stored.getConfig(), "UTF-8"));
+        Assert.assertEquals("\"v1\"", stored.getEtag());
+
+        // the invalid response counts as a failure, the retry waits for the backoff.
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+        Assert.assertNull(service.loadFromRemote(adUnitContext));
+    }
+
+    @Test
+    public void testLoadConfigFromRemoteNotModified() throws IOException {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+
+        // write an expired config entry with validators first.
+        writeConfig(adUnitContext,
+            new AdUnitAllocationStore.Record(0, "\"v1\"", "Tue, 15 Nov 1994 12:45:26 GMT", "old config".getBytes("UTF-8")));
+
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_NOT_MODIFIED, "");
+
         AdUnitAllocationService service = new AdUnitAllocationService();
-        String res = service.loadFromSharedPreferences(TestDataUtils.getAdUnitContext());
+        Assert.assertEquals("old config", service.loadFromRemote(adUnitContext));
+
+        HttpRequest sentRequest = Robolectric.getSentHttpRequest(0);
+        Assert.assertEquals("\"v1\"", sentRequest.getFirstHeader("If-None-Match").getValue());
+        Assert.assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", sentRequest.getFirstHeader("If-Modified-Since").getValue());
+
+        // the timestamp is bumped, the stored config is valid again.
+        Assert.assertEquals("old config", service.loadFromStore(adUnitContext));
+    }
+
+    @Test
+    public void testLoadConfigFromRemoteUnconditionalWithoutStoredConfig() {
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, "TEST_DATA");
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        service.loadFromRemote(TestDataUtils.getAdUnitContext());
+
+        HttpRequest sentRequest = Robolectric.getSentHttpRequest(0);
+        Assert.assertNull(sentRequest.getFirstHeader("If-None-Match"));
+        Assert.assertNull(sentRequest.getFirstHeader("If-Modified-Since"));
+    }
+
+    @Test
+    public void testLoadConfigFromRemoteCachesParsedAllocation() {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocationAsString(), service.loadFromRemote(adUnitContext));
+
+        // the allocation was parsed from the response stream, the stored string is not parsed again.
+        writeConfig(adUnitContext, "not a config", System.currentTimeMillis());
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocation(), service.getAdUnitAllocation(adUnitContext));
+    }
+
+    @Test
+    public void testLoadFromEmptyStore() {
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        String res = service.loadFromStore(TestDataUtils.getAdUnitContext());
 
         Assert.assertEquals(null, res);
     }
 
     @Test
-    public void testWriteAndLoadFromSharedPreferences() {
+    public void testWriteAndLoadFromStore() {
         AdUnitAllocationService service = new AdUnitAllocationService();
         
         String expected = "TEST_DATA";
 
         AdUnitContext context = TestDataUtils.getAdUnitContext();
-        service.writeSharedPreferences(context, expected);
+        service.writeToStore(context, expected);
 
-        Assert.assertEquals(expected, service.loadFromSharedPreferences(context));
+        Assert.assertEquals(expected, service.loadFromStore(context));
     }
 
     @Test
-    public void testLoadExpiredConfigFromSharedPreferences() {
+    public void testLoadExpiredConfigFromStore() {
 
         AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
 
         // write a config entry first.
-        SharedPreferences perfs = Robolectric.getShadowApplication().getApplicationContext()
-            .getSharedPreferences(adUnitContext.getAdUnitId(), Context.MODE_PRIVATE);
+        writeConfig(adUnitContext, "old config", 0);
 
-        SharedPreferences.Editor editor = perfs.edit();
-        editor.putString("config", "old config");
-        editor.putLong("timestamp", 0);
-        editor.commit();
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        Assert.assertEquals(null, service.loadFromStore(adUnitContext));
+    }
+
+    @Test
+    public void testOverwriteStore() {
+
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+
+        // write a config entry first.
+        writeConfig(adUnitContext, "old config", 0);
 
         AdUnitAllocationService service = new AdUnitAllocationService();
-        Assert.assertEquals(null, service.loadFromSharedPreferences(adUnitContext));
+        
+        String expected = "NEW CONFIG";
+
+        service.writeToStore(adUnitContext, expected);
+        Assert.assertEquals(expected, service.loadFromStore(adUnitContext));
     }
 
     @Test
-    public void testOverwriteSharedPreferences() {
+    public void testWriteToStoreLastWriterWins() throws IOException {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        List<Runnable> flushes = collectFlushes();
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        service.writeToStore(adUnitContext, "first");
+        service.writeToStore(adUnitContext, "second");
+
+        // the pending write is visible before it reaches the disk, and both writes share one flush.
+        Assert.assertEquals("second", service.loadFromStore(adUnitContext));
+        Assert.assertNull(readConfigFromDisk(adUnitContext));
+        Assert.assertEquals(1, flushes.size());
 
+        flushes.get(0).run();
+        Assert.assertEquals("second", readConfigFromDisk(adUnitContext));
+    }
+
+    @Test
+    public void testWriteToStoreKeepsOrder() throws IOException {
         AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        List<Runnable> flushes = collectFlushes();
 
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        service.writeToStore(adUnitContext, "first");
+        flushes.get(0).run();
+        service.writeToStore(adUnitContext, "second");
+        Assert.assertEquals(2, flushes.size());
+
+        // whichever flush runs last, the disk ends up with the latest write.
+        flushes.get(0).run();
+        flushes.get(1).run();
+        Assert.assertEquals("second", readConfigFromDisk(adUnitContext));
+    }
 
-        // write a config entry first.
+    @Test
+    public void testFlushAllPersistsPendingWrites() throws IOException {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        collectFlushes();
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        service.writeToStore(adUnitContext, "pending");
+
+        // flushAll() writes on the calling thread, it does not depend on the background flush.
+        WriteBehindQueue.flushAll();
+        Assert.assertEquals("pending", readConfigFromDisk(adUnitContext));
+    }
+
+    @Test
+    public void testHandledRequestsPersistPendingWrites() throws IOException {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        Context context = Robolectric.getShadowApplication().getApplicationContext();
+        collectFlushes();
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        // the service is idle after the request, the fetched config is on the disk before it may stop.
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        service.onStartCommand(AdUnitAllocationService.createIntent(context, adUnitContext), 0, 1);
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocationAsString(), readConfigFromDisk(adUnitContext));
+    }
+
+    @Test
+    public void testMigrateLegacySharedPreferences() {
+
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+
+        // the config as stored by older versions.
         SharedPreferences perfs = Robolectric.getShadowApplication().getApplicationContext()
             .getSharedPreferences(adUnitContext.getAdUnitId(), Context.MODE_PRIVATE);
 
         SharedPreferences.Editor editor = perfs.edit();
         editor.putString("config", "old config");
-        editor.putLong("timestamp", 0);
+        editor.putString("etag", "\"v1\"");
+        editor.putLong("timestamp", System.currentTimeMillis());
         editor.commit();
 
         AdUnitAllocationService service = new AdUnitAllocationService();
-        
-        String expected = "NEW CONFIG";
-
-        service.writeSharedPreferences(adUnitContext, expected);
-        Assert.assertEquals(expected, service.loadFromSharedPreferences(adUnitContext));
+        Assert.assertEquals("old config", service.loadFromStore(adUnitContext));
+        Assert.assertEquals("\"v1\"", service.readStore(adUnitContext).getEtag());
+        Assert.assertFalse(perfs.contains("config"));
     }
 
     @Test
@@ -116,35 +314,255 @@ public class ConfigServiceTest  {
         Assert.assertEquals(TestDataUtils.getAdUnitAllocation(), actual);
     }
 
+    @Test
+    public void testGetAdUnitAllocationFromCache() {
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        AdUnitAllocation first = service.getAdUnitAllocation(TestDataUtils.getAdUnitContext());
+        AdUnitAllocation second = service.getAdUnitAllocation(TestDataUtils.getAdUnitContext());
+
+        // the second call should neither read the store nor parse the json again.
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void testWriteToStoreInvalidatesCache() {
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        AdUnitAllocation first = service.getAdUnitAllocation(adUnitContext);
+
+        service.writeToStore(adUnitContext, TestDataUtils.getAdUnitAllocationAsString());
+        AdUnitAllocation second = service.getAdUnitAllocation(adUnitContext);
+
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(first, second);
+    }
+
+    @Test
+    public void testGetExpiredAdUnitAllocationRefreshesInBackground() {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        writeConfig(adUnitContext, TestDataUtils.getAdUnitAllocationAsString(),
+            System.currentTimeMillis() - 60 * 60 * 1000);
+
+        final List<Runnable> refreshes = new ArrayList<Runnable>();
+        AdUnitAllocationService.setRefreshExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        });
+
+        // the expired config is served without waiting for the network, and only one refresh is submitted.
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocation(), service.getAdUnitAllocation(adUnitContext));
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocation(), service.getAdUnitAllocation(adUnitContext));
+        Assert.assertEquals(1, refreshes.size());
+
+        String newConfig = TestDataUtils.getOtherAdUnitAllocationAsString();
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, newConfig);
+        refreshes.get(0).run();
+        Assert.assertEquals(newConfig, service.loadFromStore(adUnitContext));
+    }
+
+    @Test
+    public void testGetTooStaleAdUnitAllocationBlocksOnRemote() {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        writeConfig(adUnitContext, "old config", 0);
+
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocation(), service.getAdUnitAllocation(adUnitContext));
+    }
+
+    @Test
+    public void testLoadConfigFromRemoteSkippedWhileOffline() {
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(service.getApplicationContext());
+        monitor.setConnected(false);
+        try {
+            Assert.assertNull(service.loadFromRemote(TestDataUtils.getAdUnitContext()));
+        } finally {
+            monitor.setConnected(true);
+        }
+
+        // the pending response has not been used up by the skipped fetch.
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocationAsString(),
+            service.loadFromRemote(TestDataUtils.getAdUnitContext()));
+    }
+
+    @Test
+    public void testGetTooStaleAdUnitAllocationWhileOffline() {
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        writeConfig(adUnitContext, TestDataUtils.getAdUnitAllocationAsString(), 0);
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(service.getApplicationContext());
+        monitor.setConnected(false);
+        try {
+            Assert.assertEquals(TestDataUtils.getAdUnitAllocation(), service.getAdUnitAllocation(adUnitContext));
+        } finally {
+            monitor.setConnected(true);
+        }
+    }
+
+    @Test
+    public void testGetAdUnitAllocationWithoutStoredConfigWhileOffline() {
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(service.getApplicationContext());
+        monitor.setConnected(false);
+        try {
+            Assert.assertNull(service.getAdUnitAllocation(TestDataUtils.getAdUnitContext()));
+        } finally {
+            monitor.setConnected(true);
+        }
+    }
+
+    @Test
+    public void testOnHandleIntentOnlyNotifiesListenersOfTheAdUnit() {
+
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        final Intent[] response = { null };
+        ShowAdDispatcher.ShowAdListener listener = new ShowAdDispatcher.ShowAdListener() {
+            @Override
+            public void onShowAd(Intent intent) {
+                response[0] = intent;
+            }
+        };
+        ShowAdDispatcher.register("ANOTHER_UNIT", listener);
+
+        Intent intent = AdUnitAllocationService.createIntent(
+            Robolectric.getShadowApplication().getApplicationContext(),
+            adUnitContext);
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        try {
+            service.onHandleIntent(intent);
+        } finally {
+            ShowAdDispatcher.unregister("ANOTHER_UNIT", listener);
+        }
+
+        Assert.assertNull(response[0]);
+    }
+
     @Test
     public void testOnHandleIntent() throws InterruptedException {
 
         AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
         Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
 
-        // register a broadcast receiver to receive response.
+        // register a listener to receive response.
         final Intent[] response = { null };
-        Robolectric.getShadowApplication().registerReceiver(
-            new BroadcastReceiver() {
-                @Override
-                public void onReceive(Context context, Intent intent) {
-                    response[0] = intent;
-                }
-            },
-            new IntentFilter(IntentConstants.ACTION_SHOW_AD)
-        );
+        ShowAdDispatcher.ShowAdListener listener = new ShowAdDispatcher.ShowAdListener() {
+            @Override
+            public void onShowAd(Intent intent) {
+                response[0] = intent;
+            }
+        };
+        ShowAdDispatcher.register(adUnitContext.getAdUnitId(), listener);
 
         // send a ad request to config service.
         Intent intent = AdUnitAllocationService.createIntent(
             Robolectric.getShadowApplication().getApplicationContext(),
             adUnitContext);
         AdUnitAllocationService service = new AdUnitAllocationService();
-        service.onHandleIntent(intent);
+        try {
+            service.onHandleIntent(intent);
+        } finally {
+            ShowAdDispatcher.unregister(adUnitContext.getAdUnitId(), listener);
+        }
 
         Assert.assertNotNull(response[0]);
         Assert.assertEquals(response[0].getAction(), IntentConstants.ACTION_SHOW_AD);
         Assert.assertEquals(response[0].getStringExtra(IntentConstants.EXTRA_ADUNIT_ID), adUnitContext.getAdUnitId());
         Assert.assertNotNull(response[0].getSerializableExtra(IntentConstants.EXTRA_RATION));
         Assert.assertNotNull(response[0].getSerializableExtra(IntentConstants.EXTRA_EXTRA));
+        Assert.assertEquals(TestDataUtils.getAdUnitAllocation().getRations(),
+            response[0].getSerializableExtra(IntentConstants.EXTRA_ROLLOVERS));
+    }
+
+    @Test
+    public void testOnStartCommandMergesPendingRequestsOfTheAdUnit() {
+
+        AdUnitContext adUnitContext = TestDataUtils.getAdUnitContext();
+        Context context = Robolectric.getShadowApplication().getApplicationContext();
+        Robolectric.addPendingHttpResponse(HttpStatus.SC_OK, TestDataUtils.getAdUnitAllocationAsString());
+
+        final List<Intent> responses = new ArrayList<Intent>();
+        ShowAdDispatcher.ShowAdListener listener = new ShowAdDispatcher.ShowAdListener() {
+            @Override
+            public void onShowAd(Intent intent) {
+                responses.add(intent);
+            }
+        };
+        ShowAdDispatcher.register(adUnitContext.getAdUnitId(), listener);
+
+        final List<Runnable> requests = new ArrayList<Runnable>();
+        AdUnitAllocationService.setRequestExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                requests.add(command);
+            }
+        });
+
+        AdUnitAllocationService service = new AdUnitAllocationService();
+        try {
+            service.onStartCommand(AdUnitAllocationService.createIntent(context, adUnitContext), 0, 1);
+            service.onStartCommand(AdUnitAllocationService.createIntent(context, adUnitContext), 0, 2);
+
+            // the second request is merged into the first one.
+            Assert.assertEquals(1, requests.size());
+            requests.remove(0).run();
+
+            // the first request has been handled, a new request is handled on its own.
+            service.onStartCommand(AdUnitAllocationService.createIntent(context, adUnitContext), 0, 3);
+            Assert.assertEquals(1, requests.size());
+            requests.remove(0).run();
+        } finally {
+            ShowAdDispatcher.unregister(adUnitContext.getAdUnitId(), listener);
+        }
+
+        Assert.assertEquals(2, responses.size());
+    }
+
+    /** @return the background flushes of the store, they are only run by the test. */
+    private static List<Runnable> collectFlushes() {
+        final List<Runnable> ret = new ArrayList<Runnable>();
+        AdUnitAllocationStore.getInstance(Robolectric.getShadowApplication().getApplicationContext())
+            .setFlushExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    ret.add(command);
+                }
+            });
+        return ret;
+    }
+
+    /** @return the config in the file of the adunit, ignoring pending writes. */
+    private static String readConfigFromDisk(AdUnitContext adUnitContext) throws IOException {
+        File directory = new File(Robolectric.getShadowApplication().getApplicationContext().getFilesDir(),
+            AdUnitAllocationStore.DIRECTORY_NAME);
+        AdUnitAllocationStore.Record record = new AdUnitAllocationStore(directory).read(adUnitContext.getAdUnitId());
+        return record == null ? null : new String(record.getConfig(), "UTF-8");
+    }
+
+    private static void writeConfig(AdUnitContext adUnitContext, String config, long timestamp) {
+        try {
+            writeConfig(adUnitContext, new AdUnitAllocationStore.Record(timestamp, null, null, config.getBytes("UTF-8")));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeConfig(AdUnitContext adUnitContext, AdUnitAllocationStore.Record record)
+        throws IOException {
+        AdUnitAllocationStore.getInstance(Robolectric.getShadowApplication().getApplicationContext())
+            .write(adUnitContext.getAdUnitId(), record);
     }
 }
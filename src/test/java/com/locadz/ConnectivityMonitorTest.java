@@ -0,0 +1,79 @@
+package com.locadz;
+
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConnectivityMonitorTest {
+
+    private ConnectivityMonitor monitor;
+
+    /** the refreshes made by the listeners. */
+    private int refreshes;
+
+    /** the reconnect listeners of two layouts of the ad unit. */
+    private final ConnectivityMonitor.ReconnectListener listener = new RefreshingListener();
+
+    private final ConnectivityMonitor.ReconnectListener otherListener = new RefreshingListener();
+
+    @Before
+    public void setUp() {
+        monitor = ConnectivityMonitor.getInstance(Robolectric.getShadowApplication().getApplicationContext());
+    }
+
+    @After
+    public void tearDown() {
+        monitor.removeReconnectListener(listener);
+        monitor.removeReconnectListener(otherListener);
+        monitor.setConnected(true);
+        monitor.takeSkipped("unit");
+    }
+
+    @Test
+    public void testSingleRefreshPerAdUnitAfterReconnect() {
+        // two layouts of the ad unit skip their reloads while offline.
+        monitor.setConnected(false);
+        monitor.skipped("unit");
+        monitor.skipped("unit");
+        monitor.addReconnectListener(listener);
+        monitor.addReconnectListener(otherListener);
+
+        monitor.setConnected(true);
+        monitor.notifyReconnect();
+        Assert.assertEquals(1, refreshes);
+
+        // nothing has been skipped since.
+        monitor.notifyReconnect();
+        Assert.assertEquals(1, refreshes);
+    }
+
+    @Test
+    public void testNoRefreshWhileOffline() {
+        monitor.setConnected(false);
+        monitor.skipped("unit");
+        monitor.addReconnectListener(listener);
+
+        monitor.notifyReconnect();
+        Assert.assertEquals(0, refreshes);
+        Assert.assertTrue(monitor.takeSkipped("unit"));
+    }
+
+    /** Refreshes the ad unit if its requests have been skipped. */
+    private final class RefreshingListener implements ConnectivityMonitor.ReconnectListener {
+        @Override
+        public void onReconnect(ConnectivityMonitor reconnected) {
+            if (reconnected.takeSkipped("unit")) {
+                refreshes++;
+            }
+        }
+    }
+}
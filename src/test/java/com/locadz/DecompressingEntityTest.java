@@ -0,0 +1,65 @@
+package com.locadz;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DecompressingEntityTest {
+
+    private static final String CONFIG = TestDataUtils.getAdUnitAllocationAsString();
+
+    @Test
+    public void testGzip() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(CONFIG.getBytes("UTF-8"));
+        out.close();
+
+        assertDecompressed(buffer.toByteArray(), DecompressingEntity.ENCODING_GZIP);
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(buffer);
+        out.write(CONFIG.getBytes("UTF-8"));
+        out.close();
+
+        assertDecompressed(buffer.toByteArray(), DecompressingEntity.ENCODING_DEFLATE);
+    }
+
+    @Test
+    public void testIsSupported() {
+        Assert.assertTrue(DecompressingEntity.isSupported("gzip"));
+        Assert.assertTrue(DecompressingEntity.isSupported(" Deflate"));
+        Assert.assertFalse(DecompressingEntity.isSupported("identity"));
+    }
+
+    private void assertDecompressed(byte[] compressed, String encoding) throws IOException {
+        long compressedBefore = DecompressingEntity.getCompressedBytes();
+        long uncompressedBefore = DecompressingEntity.getUncompressedBytes();
+
+        ByteArrayEntity entity = new ByteArrayEntity(compressed);
+        entity.setContentEncoding(encoding);
+        DecompressingEntity decompressed = new DecompressingEntity(entity);
+
+        Assert.assertNull(decompressed.getContentEncoding());
+        Assert.assertEquals(CONFIG, EntityUtils.toString(decompressed, "UTF-8"));
+        Assert.assertEquals(compressed.length, DecompressingEntity.getCompressedBytes() - compressedBefore);
+        Assert.assertEquals(CONFIG.getBytes("UTF-8").length,
+            DecompressingEntity.getUncompressedBytes() - uncompressedBefore);
+    }
+}
@@ -0,0 +1,102 @@
+package com.locadz;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class KeyedSerialExecutorTest {
+
+    private ExecutorService workers;
+
+    private KeyedSerialExecutor executor;
+
+    @Before
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(2);
+        executor = new KeyedSerialExecutor(workers);
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void testSlowKeyDoesNotBlockOtherKeys() throws InterruptedException {
+        final CountDownLatch slowEndpoint = new CountDownLatch(1);
+        final CountDownLatch fastHandled = new CountDownLatch(1);
+
+        // the fetch of the first ad unit hangs until the end of the test.
+        executor.execute("SLOW_UNIT", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    slowEndpoint.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute("FAST_UNIT", new Runnable() {
+            @Override
+            public void run() {
+                fastHandled.countDown();
+            }
+        });
+
+        try {
+            Assert.assertTrue(fastHandled.await(5, TimeUnit.SECONDS));
+        } finally {
+            slowEndpoint.countDown();
+        }
+    }
+
+    @Test
+    public void testTasksOfKeyRunInOrder() throws InterruptedException {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+
+        executor.execute("UNIT", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 1; i <= 3; i++) {
+            final int request = i;
+            executor.execute("UNIT", new Runnable() {
+                @Override
+                public void run() {
+                    handled.add(request);
+                    done.countDown();
+                }
+            });
+        }
+
+        // the requests of the unit wait for the running one even though a worker is idle.
+        Thread.sleep(100);
+        Assert.assertTrue(handled.isEmpty());
+
+        blocker.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1, 2, 3), handled);
+    }
+}
@@ -0,0 +1,98 @@
+package com.locadz;
+
+import com.locadz.model.Ration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro benchmark that compares {@link RationSelector} with the linear scan it replaced.<p/>
+ *
+ * Run it with <code>java -cp target/classes:target/test-classes com.locadz.RationSelectorBenchmark</code>.
+ */
+public final class RationSelectorBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int ROUNDS = 10;
+
+    private static final int SELECTIONS = 1000000;
+
+    private RationSelectorBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        for (int size : new int[] { 2, 8, 32 }) {
+            List<Ration> rations = new ArrayList<Ration>(size);
+            for (int i = 0; i < size; i++) {
+                rations.add(new Ration("allocId", "network" + i, i, 100 / size, 0, "akey"));
+            }
+
+            RationSelector selector = new RationSelector(rations);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                runAliasTable(selector);
+                runLinearScan(rations);
+            }
+
+            long aliasTable = 0;
+            long linearScan = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                aliasTable += runAliasTable(selector);
+                linearScan += runLinearScan(rations);
+            }
+
+            System.out.println(String.format("%2d rations: alias table %6.1f ns/op, linear scan %6.1f ns/op",
+                size, (double) aliasTable / ROUNDS / SELECTIONS, (double) linearScan / ROUNDS / SELECTIONS));
+        }
+    }
+
+    private static long runAliasTable(RationSelector selector) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < SELECTIONS; i++) {
+            sink += selector.select().getNetworkId();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return elapsed;
+    }
+
+    private static long runLinearScan(List<Ration> rations) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < SELECTIONS; i++) {
+            sink += getRandomRation(rations).getNetworkId();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return elapsed;
+    }
+
+    /** the selection used by AdUnitAllocationService before RationSelector was introduced. */
+    private static Ration getRandomRation(List<Ration> rations) {
+
+        Random random = new Random();
+        int targetWeight = random.nextInt(100);
+        int c = 0;
+        Ration ret = null;
+        Iterator<Ration> it = rations.iterator();
+
+        while (it.hasNext()) {
+            ret = it.next();
+            c += ret.getWeight();
+            if (c >= targetWeight) {
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    private static void consume(int sink) {
+        if (sink == Integer.MIN_VALUE) {
+            System.out.println(sink);
+        }
+    }
+}
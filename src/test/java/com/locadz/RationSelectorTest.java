@@ -0,0 +1,81 @@
+package com.locadz;
+
+import com.locadz.model.Ration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ *
+ */
+public class RationSelectorTest {
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void testSelectFollowsWeights() {
+        // weights intentionally do not sum up to 100.
+        List<Ration> rations = Arrays.asList(
+            new Ration("allocId", "network1", 1, 10, 0, "akey"),
+            new Ration("allocId", "network2", 2, 30, 0, "akey"),
+            new Ration("allocId", "network3", 3, 160, 0, "akey"));
+
+        Map<Ration, Integer> counts = sample(new RationSelector(rations, new Random(42)), SAMPLES);
+
+        assertFrequency(counts.get(rations.get(0)), 10 / 200.0);
+        assertFrequency(counts.get(rations.get(1)), 30 / 200.0);
+        assertFrequency(counts.get(rations.get(2)), 160 / 200.0);
+    }
+
+    @Test
+    public void testSelectSkipsZeroWeight() {
+        List<Ration> rations = Arrays.asList(
+            new Ration("allocId", "network1", 1, 0, 0, "akey"),
+            new Ration("allocId", "network2", 2, 50, 0, "akey"),
+            new Ration("allocId", "network3", 3, 0, 0, "akey"),
+            new Ration("allocId", "network4", 4, 50, 0, "akey"));
+
+        Map<Ration, Integer> counts = sample(new RationSelector(rations, new Random(42)), SAMPLES);
+
+        Assert.assertNull(counts.get(rations.get(0)));
+        Assert.assertNull(counts.get(rations.get(2)));
+        assertFrequency(counts.get(rations.get(1)), 0.5);
+        assertFrequency(counts.get(rations.get(3)), 0.5);
+    }
+
+    @Test
+    public void testSelectWithoutPositiveWeight() {
+        Assert.assertNull(new RationSelector(Collections.<Ration>emptyList()).select());
+        Assert.assertNull(new RationSelector(Arrays.asList(new Ration("allocId", "network1", 1, 0, 0, "akey"))).select());
+    }
+
+    @Test
+    public void testSelectSingleRation() {
+        Ration ration = new Ration("allocId", "network1", 1, 7, 0, "akey");
+        Assert.assertSame(ration, new RationSelector(Arrays.asList(ration)).select());
+    }
+
+    private static Map<Ration, Integer> sample(RationSelector selector, int samples) {
+        Map<Ration, Integer> ret = new HashMap<Ration, Integer>();
+        for (int i = 0; i < samples; i++) {
+            Ration ration = selector.select();
+            Integer count = ret.get(ration);
+            ret.put(ration, count == null ? 1 : count + 1);
+        }
+        return ret;
+    }
+
+    /** the observed frequency must be within 5 standard deviations of the expected one. */
+    private static void assertFrequency(Integer observed, double expected) {
+        Assert.assertNotNull(observed);
+        double stdDev = Math.sqrt(SAMPLES * expected * (1 - expected));
+        Assert.assertEquals(SAMPLES * expected, observed, 5 * stdDev);
+    }
+}
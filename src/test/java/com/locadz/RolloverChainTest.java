@@ -0,0 +1,43 @@
+package com.locadz;
+
+import com.locadz.model.Ration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ *
+ */
+public class RolloverChainTest {
+
+    private final Ration admob = new Ration("allocId", "network1", 1, 20, 3, "akey");
+    private final Ration millennial = new Ration("allocId", "network2", 6, 30, 1, "akey");
+    private final Ration disabled = new Ration("allocId", "network3", 11, 0, 0, "akey");
+    private final Ration inmobi = new Ration("allocId", "network4", 18, 50, 2, "akey");
+
+    @Test
+    public void testNextFollowsPriority() {
+        RolloverChain chain = new RolloverChain(Arrays.asList(admob, millennial, disabled, inmobi));
+
+        Assert.assertSame(millennial, chain.next());
+        Assert.assertSame(inmobi, chain.next());
+        Assert.assertSame(admob, chain.next());
+        Assert.assertNull(chain.next());
+    }
+
+    @Test
+    public void testNextSkipsFailedNetworks() {
+        RolloverChain chain = new RolloverChain(Arrays.asList(admob, millennial, disabled, inmobi));
+
+        chain.markFailed(inmobi);
+        Assert.assertSame(millennial, chain.next());
+
+        chain.markFailed(millennial);
+        Assert.assertSame(admob, chain.next());
+
+        chain.markFailed(admob);
+        Assert.assertNull(chain.next());
+    }
+}
@@ -0,0 +1,42 @@
+package com.locadz;
+
+import android.net.ConnectivityManager;
+import android.telephony.TelephonyManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class RotationPolicyTest {
+
+    private static final long CYCLE_TIME = 30 * 1000;
+
+    @Test
+    public void testWifiAndChargingKeepsServerCycleTime() {
+        Assert.assertEquals(CYCLE_TIME, RotationPolicy.getCycleTime(
+            CYCLE_TIME, ConnectivityManager.TYPE_WIFI, 0, 10, true));
+        Assert.assertEquals(CYCLE_TIME, RotationPolicy.getCycleTime(
+            CYCLE_TIME, ConnectivityManager.TYPE_WIFI, 0, RotationPolicy.BATTERY_UNKNOWN, false));
+    }
+
+    @Test
+    public void testMobileNetworkStretchesCycleTime() {
+        long fast = RotationPolicy.getCycleTime(
+            CYCLE_TIME, ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_HSPA, 100, false);
+        long slow = RotationPolicy.getCycleTime(
+            CYCLE_TIME, ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_EDGE, 100, false);
+
+        Assert.assertTrue(fast > CYCLE_TIME);
+        Assert.assertTrue(slow > fast);
+    }
+
+    @Test
+    public void testLowBatteryStretchesCycleTimeUpToMaximum() {
+        Assert.assertTrue(RotationPolicy.getCycleTime(
+            CYCLE_TIME, ConnectivityManager.TYPE_WIFI, 0, 10, false) > CYCLE_TIME);
+        Assert.assertEquals((long) (CYCLE_TIME * RotationPolicy.MAX_FACTOR), RotationPolicy.getCycleTime(
+            CYCLE_TIME, ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_GPRS, 10, false));
+    }
+}
@@ -0,0 +1,85 @@
+package com.locadz;
+
+import com.locadz.model.AdUnitAllocation;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Micro benchmark that compares the cached readers of {@link SerializationUtils} with
+ * <code>ObjectMapper.readValue()</code> on a shared mapper, the way SerializationUtils parsed before. It also
+ * reports the cost of the first parse on a cold mapper, which {@link SerializationUtils#warmUp()} moves off
+ * the first rotation.<p/>
+ *
+ * JMH is not available to this build; run it with <code>java -cp target/classes:target/test-classes:&lt;dependencies&gt;
+ * com.locadz.SerializationBenchmark</code>.
+ */
+public final class SerializationBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int ROUNDS = 10;
+
+    private static final int PARSES = 10000;
+
+    private static final int COLD_PARSES = 20;
+
+    private SerializationBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String json = TestDataUtils.getAdUnitAllocationAsString();
+        ObjectMapper mapper = new ObjectMapper();
+
+        long cold = 0;
+        for (int i = 0; i < COLD_PARSES; i++) {
+            cold += runMapper(new ObjectMapper(), json, 1);
+        }
+
+        SerializationUtils.warmUp();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runMapper(mapper, json, PARSES);
+            runReader(json, PARSES);
+        }
+
+        long readValue = 0;
+        long reader = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            readValue += runMapper(mapper, json, PARSES);
+            reader += runReader(json, PARSES);
+        }
+
+        System.out.println(String.format("first parse on a cold mapper %8.1f us", (double) cold / COLD_PARSES / 1000));
+        System.out.println(String.format("ObjectMapper.readValue      %8.2f us/op", (double) readValue / ROUNDS / PARSES / 1000));
+        System.out.println(String.format("cached ObjectReader         %8.2f us/op", (double) reader / ROUNDS / PARSES / 1000));
+    }
+
+    private static long runMapper(ObjectMapper mapper, String json, int parses) throws IOException {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < parses; i++) {
+            sink += mapper.readValue(json, AdUnitAllocation.class).getRations().size();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return elapsed;
+    }
+
+    private static long runReader(String json, int parses) throws IOException {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < parses; i++) {
+            sink += SerializationUtils.fromJson(json, AdUnitAllocation.class).getRations().size();
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return elapsed;
+    }
+
+    private static void consume(int sink) {
+        if (sink == Integer.MIN_VALUE) {
+            System.out.println(sink);
+        }
+    }
+}
@@ -6,7 +6,13 @@ import com.locadz.model.Color;
 import com.locadz.model.Extra;
 import com.locadz.model.Ration;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
 /**
@@ -38,4 +44,21 @@ public class TestDataUtils {
             throw new RuntimeException(shouldNeverHappen);
         }
     }
+
+    /** @return a valid allocation that differs from {@link #getAdUnitAllocation()}. */
+    public static String getOtherAdUnitAllocationAsString() {
+        Extra extra = new Extra(true, Color.White, Color.Black, 2000, 1);
+        Ration ration = new Ration("allocId", "network1", 1, 100, 0, "akey");
+        try {
+            return SerializationUtils.toJson(new AdUnitAllocation(extra, Arrays.asList(ration)));
+        } catch (IOException shouldNeverHappen) {
+            throw new RuntimeException(shouldNeverHappen);
+        }
+    }
+
+    public static HttpResponse getHttpResponse(int statusCode, String body) throws UnsupportedEncodingException {
+        HttpResponse ret = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "");
+        ret.setEntity(new StringEntity(body));
+        return ret;
+    }
 }
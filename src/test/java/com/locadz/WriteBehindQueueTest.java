@@ -0,0 +1,91 @@
+package com.locadz;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WriteBehindQueueTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** the values that reached the sink. */
+    private final List<String> written = new ArrayList<String>();
+
+    /** the number of writes that fail before the sink recovers. */
+    private int failures;
+
+    private WriteBehindQueue<String> queue;
+
+    @Before
+    public void setUp() {
+        queue = new WriteBehindQueue<String>(new WriteBehindQueue.Sink<String>() {
+            @Override
+            public void write(String key, String value) throws IOException {
+                if (failures > 0) {
+                    failures--;
+                    throw new IOException("disk full");
+                }
+                written.add(value);
+            }
+        }, DIRECT_EXECUTOR);
+        queue.setRetryDelay(0);
+    }
+
+    @After
+    public void tearDown() {
+        queue.clear();
+        queue.close();
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() {
+        failures = 1;
+        queue.put("key", "value");
+
+        Assert.assertEquals(1, written.size());
+        Assert.assertEquals("value", written.get(0));
+        Assert.assertNull(queue.get("key"));
+    }
+
+    @Test
+    public void testFailedWriteIsWrittenByFlushAll() {
+        failures = 1;
+        queue.setRetryDelay(WriteBehindQueue.RETRY_DELAY);
+        queue.put("key", "value");
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals("value", queue.get("key"));
+
+        // the retry is not due yet, but the value must not be lost when the process goes away.
+        WriteBehindQueue.flushAll();
+        Assert.assertEquals(1, written.size());
+        Assert.assertNull(queue.get("key"));
+    }
+
+    @Test
+    public void testFailingWriteIsDroppedAfterMaxAttempts() {
+        failures = WriteBehindQueue.MAX_WRITE_ATTEMPTS + 1;
+        queue.put("key", "value");
+
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertNull(queue.get("key"));
+        Assert.assertEquals(1, failures);
+    }
+}